@@ -7,7 +7,35 @@
 
 #pragma once
 
+#if defined(ANDROID) || defined(__ANDROID__)
 #include <android/log.h>
+#else
+#include <cstdarg>
+#include <cstdio>
+#include <cstdlib>
+
+// Minimal stand-ins for the Android log API, used when building for the
+// host (for instance to run the local unit tests).
+enum android_LogPriority
+{
+    ANDROID_LOG_INFO = 4,
+    ANDROID_LOG_WARN = 5,
+    ANDROID_LOG_ERROR = 6,
+    ANDROID_LOG_FATAL = 7
+};
+
+inline int __android_log_print(int /*priority*/, const char* tag,
+                               const char* format, ...)
+{
+    va_list args;
+    va_start(args, format);
+    fprintf(stderr, "%s: ", tag);
+    int written = vfprintf(stderr, format, args);
+    va_end(args);
+    return written;
+}
+#endif
+
 #include <algorithm>
 #include <iostream>
 #include <string>
@@ -29,7 +29,12 @@ JNIEnv* attach_current_thread()
     args.group = NULL;
 
     JNIEnv* env;
+#if defined(ANDROID) || defined(__ANDROID__)
     if (java_vm->AttachCurrentThread(&env, &args) < 0)
+#else
+    // The JNI headers of the host JDK declare the environment as void**
+    if (java_vm->AttachCurrentThread(reinterpret_cast<void**>(&env), &args) < 0)
+#endif
     {
         LOGE << "Failed to attach current thread";
         return NULL;
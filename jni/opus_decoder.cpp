@@ -6,6 +6,8 @@
 // actual or intended publication of such source code.
 
 #include <cassert>
+#include <cstdlib>
+#include <cstring>
 #include <memory>
 
 #include <opus.h>
@@ -85,9 +87,11 @@ jint Java_com_steinwurf_opus_Decoder_nativeDecode(
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
 
-	jbyte* const input = env->GetByteArrayElements(jinput, 0);
-	jint input_length = env->GetArrayLength(jinput);
-    assert(input_length >= (input_size + input_offset));
+    // A null input indicates packet loss
+    jbyte* const input =
+        jinput ? env->GetByteArrayElements(jinput, 0) : nullptr;
+    assert(!jinput ||
+           env->GetArrayLength(jinput) >= (input_size + input_offset));
 
 	jint pcm_length = env->GetArrayLength(jpcm);
 	jshort* const pcm = env->GetShortArrayElements(jpcm, 0);
@@ -95,20 +99,75 @@ jint Java_com_steinwurf_opus_Decoder_nativeDecode(
 
 	int decoded = opus_decode(
         decoder,
-        (uint8_t*)input + input_offset,
-        input_size,
+        input ? (uint8_t*)input + input_offset : nullptr,
+        input ? input_size : 0,
         pcm + pcm_offset,
         frame_size,
         decode_fec ? 1 : 0);
 
     assert(pcm_size >= decoded);
 
-	env->ReleaseByteArrayElements(jinput, input, JNI_ABORT);
+    if (input)
+        env->ReleaseByteArrayElements(jinput, input, JNI_ABORT);
 	env->ReleaseShortArrayElements(jpcm, pcm, 0);
 
 	return decoded;
 }
 
+jint Java_com_steinwurf_opus_Decoder_nativeDecodeBuffer(
+    JNIEnv* env,
+    jobject thiz,
+    jobject jinput,
+    jint input_offset,
+    jint input_size,
+    jshortArray jpcm,
+    jint pcm_offset,
+    jint pcm_size,
+    jint frame_size,
+    jboolean decode_fec)
+{
+    auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
+
+    // Direct buffers are read in place, no copy is needed
+    auto input = static_cast<uint8_t*>(env->GetDirectBufferAddress(jinput));
+    assert(input);
+    assert(env->GetDirectBufferCapacity(jinput) >= (input_size + input_offset));
+
+    jint pcm_length = env->GetArrayLength(jpcm);
+    jshort* const pcm = env->GetShortArrayElements(jpcm, 0);
+    assert(pcm_length >= (pcm_size + pcm_offset));
+
+    int decoded = opus_decode(
+        decoder,
+        input + input_offset,
+        input_size,
+        pcm + pcm_offset,
+        frame_size,
+        decode_fec ? 1 : 0);
+
+    env->ReleaseShortArrayElements(jpcm, pcm, 0);
+
+    return decoded;
+}
+
+jint Java_com_steinwurf_opus_Decoder_nativeGetNumberOfSamples(
+    JNIEnv* env,
+    jclass /*clazz*/,
+    jbyteArray jpacket,
+    jint offset,
+    jint size,
+    jint sample_rate)
+{
+    jbyte* const packet = env->GetByteArrayElements(jpacket, 0);
+    assert(env->GetArrayLength(jpacket) >= (size + offset));
+
+    int samples = opus_packet_get_nb_samples(
+        (uint8_t*)packet + offset, size, sample_rate);
+
+    env->ReleaseByteArrayElements(jpacket, packet, JNI_ABORT);
+    return samples;
+}
+
 jint Java_com_steinwurf_opus_Decoder_nativeGetBandwidth(JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
@@ -117,7 +176,7 @@ jint Java_com_steinwurf_opus_Decoder_nativeGetBandwidth(JNIEnv* env, jobject thi
     return bandwidth;
 }
 
-jint Java_com_steinwurf_opus_Decoder_getSampleRate(JNIEnv* env, jobject thiz)
+jint Java_com_steinwurf_opus_Decoder_nativeGetSampleRate(JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
     int32_t sample_rate = 0;
@@ -125,7 +184,7 @@ jint Java_com_steinwurf_opus_Decoder_getSampleRate(JNIEnv* env, jobject thiz)
     return sample_rate;
 }
 
-jint Java_com_steinwurf_opus_Decoder_getLastPacketDuration(
+jint Java_com_steinwurf_opus_Decoder_nativeGetLastPacketDuration(
     JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
@@ -134,7 +193,7 @@ jint Java_com_steinwurf_opus_Decoder_getLastPacketDuration(
     return last_packet_duration;
 }
 
-jint Java_com_steinwurf_opus_Decoder_getGain(
+jint Java_com_steinwurf_opus_Decoder_nativeGetGain(
     JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
@@ -143,13 +202,13 @@ jint Java_com_steinwurf_opus_Decoder_getGain(
     return gain;
 }
 
-void Java_com_steinwurf_opus_Decoder_setGain(JNIEnv* env, jobject thiz, jshort gain)
+void Java_com_steinwurf_opus_Decoder_nativeSetGain(JNIEnv* env, jobject thiz, jshort gain)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
     opus_decoder_ctl(decoder, OPUS_SET_GAIN(gain));
 }
 
-jint Java_com_steinwurf_opus_Decoder_getPitch(
+jint Java_com_steinwurf_opus_Decoder_nativeGetPitch(
     JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
@@ -158,12 +217,60 @@ jint Java_com_steinwurf_opus_Decoder_getPitch(
     return pitch;
 }
 
-void Java_com_steinwurf_opus_Decoder_resetState(JNIEnv* env, jobject thiz)
+void Java_com_steinwurf_opus_Decoder_nativeResetState(JNIEnv* env, jobject thiz)
 {
     auto decoder = jutils::get_native_pointer<OpusDecoder>(env, thiz);
     opus_decoder_ctl(decoder, OPUS_RESET_STATE);
 }
 
+jint Java_com_steinwurf_opus_Decoder_getStateSize(
+    JNIEnv* /*env*/, jclass /*clazz*/, jint channels)
+{
+    return opus_decoder_get_size(channels);
+}
+
+jlong Java_com_steinwurf_opus_Decoder_nativeCopy(
+    JNIEnv* /*env*/, jclass /*clazz*/, jlong pointer, jint channels)
+{
+    // The state is a flat, self-contained struct allocated with malloc by
+    // opus_decoder_create, so a copy is a plain memcpy.
+    auto size = opus_decoder_get_size(channels);
+    auto copy = malloc(size);
+    if (copy == nullptr)
+    {
+        LOGF << "Memory allocation has failed";
+        return 0;
+    }
+    memcpy(copy, reinterpret_cast<void*>(pointer), size);
+    return reinterpret_cast<jlong>(copy);
+}
+
+void Java_com_steinwurf_opus_Decoder_nativeSnapshot(
+    JNIEnv* env, jclass /*clazz*/, jlong pointer, jint channels,
+    jobject jbuffer, jint offset)
+{
+    auto buffer = static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer));
+    assert(buffer);
+    assert(env->GetDirectBufferCapacity(jbuffer) >=
+           offset + opus_decoder_get_size(channels));
+
+    memcpy(buffer + offset, reinterpret_cast<void*>(pointer),
+           opus_decoder_get_size(channels));
+}
+
+void Java_com_steinwurf_opus_Decoder_nativeRestore(
+    JNIEnv* env, jclass /*clazz*/, jlong pointer, jint channels,
+    jobject jbuffer, jint offset)
+{
+    auto buffer = static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer));
+    assert(buffer);
+    assert(env->GetDirectBufferCapacity(jbuffer) >=
+           offset + opus_decoder_get_size(channels));
+
+    memcpy(reinterpret_cast<void*>(pointer), buffer + offset,
+           opus_decoder_get_size(channels));
+}
+
 void Java_com_steinwurf_opus_Decoder_finalize(
     JNIEnv* /*env*/, jobject /*thiz*/, jlong pointer)
 {
@@ -6,6 +6,8 @@
 // actual or intended publication of such source code.
 
 #include <cassert>
+#include <cstdlib>
+#include <cstring>
 #include <memory>
 
 #include <opus.h>
@@ -108,13 +110,47 @@ jint Java_com_steinwurf_opus_Encoder_nativeEncode(
 	return encoded;
 }
 
-void Java_com_steinwurf_opus_Encoder_resetState(JNIEnv* env, jobject thiz)
+jint Java_com_steinwurf_opus_Encoder_nativeEncodeBuffer(
+    JNIEnv* env,
+    jobject thiz,
+    jshortArray jpcm,
+    jint pcm_offset,
+    jint pcm_size,
+    jint frameSize,
+    jobject joutput,
+    jint output_offset,
+    jint output_size)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+
+    jshort* const pcm = env->GetShortArrayElements(jpcm, 0);
+    jint pcm_length = env->GetArrayLength(jpcm);
+    assert(pcm_length >= (pcm_size + pcm_offset));
+
+    // Direct buffers are written in place, no copy is needed
+    auto output = static_cast<uint8_t*>(env->GetDirectBufferAddress(joutput));
+    assert(output);
+    assert(env->GetDirectBufferCapacity(joutput) >= (output_size + output_offset));
+
+    int encoded = opus_encode(
+        encoder,
+        pcm + pcm_offset,
+        frameSize,
+        output + output_offset,
+        output_size);
+
+    env->ReleaseShortArrayElements(jpcm, pcm, JNI_ABORT);
+
+    return encoded;
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeResetState(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     opus_encoder_ctl(encoder, OPUS_RESET_STATE);
 }
 
-jint Java_com_steinwurf_opus_Encoder_getSampleRate(JNIEnv* env, jobject thiz)
+jint Java_com_steinwurf_opus_Encoder_nativeGetSampleRate(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     int32_t sample_rate = 0;
@@ -122,13 +158,21 @@ jint Java_com_steinwurf_opus_Encoder_getSampleRate(JNIEnv* env, jobject thiz)
     return sample_rate;
 }
 
-void Java_com_steinwurf_opus_Encoder_setBitrate(JNIEnv* env, jobject thiz, jint bitrate)
+jint Java_com_steinwurf_opus_Encoder_nativeGetLookahead(JNIEnv* env, jobject thiz)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    int32_t lookahead = 0;
+    opus_encoder_ctl(encoder, OPUS_GET_LOOKAHEAD(&lookahead));
+    return lookahead;
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeSetBitrate(JNIEnv* env, jobject thiz, jint bitrate)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     opus_encoder_ctl(encoder, OPUS_SET_BITRATE(bitrate));
 }
 
-jint Java_com_steinwurf_opus_Encoder_getBitrate(JNIEnv* env, jobject thiz)
+jint Java_com_steinwurf_opus_Encoder_nativeGetBitrate(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     int32_t bitrate = 0;
@@ -136,13 +180,13 @@ jint Java_com_steinwurf_opus_Encoder_getBitrate(JNIEnv* env, jobject thiz)
     return bitrate;
 }
 
-void Java_com_steinwurf_opus_Encoder_setComplexity(JNIEnv* env, jobject thiz, jint complexity)
+void Java_com_steinwurf_opus_Encoder_nativeSetComplexity(JNIEnv* env, jobject thiz, jint complexity)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     opus_encoder_ctl(encoder, OPUS_SET_COMPLEXITY(complexity));
 }
 
-jint Java_com_steinwurf_opus_Encoder_getComplexity(JNIEnv* env, jobject thiz)
+jint Java_com_steinwurf_opus_Encoder_nativeGetComplexity(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     int32_t complexity = 0;
@@ -193,7 +237,7 @@ jint Java_com_steinwurf_opus_Encoder_nativeGetSignal(JNIEnv* env, jobject thiz)
     return signal;
 }
 
-void  Java_com_steinwurf_opus_Encoder_enableInBandFEC(
+void  Java_com_steinwurf_opus_Encoder_nativeEnableInBandFEC(
     JNIEnv* env,
     jobject thiz,
     jboolean enable)
@@ -202,7 +246,7 @@ void  Java_com_steinwurf_opus_Encoder_enableInBandFEC(
     opus_encoder_ctl(encoder, OPUS_SET_INBAND_FEC(enable ? 1 : 0));
 }
 
-jboolean Java_com_steinwurf_opus_Encoder_hasInBandFEC(JNIEnv* env, jobject thiz)
+jboolean Java_com_steinwurf_opus_Encoder_nativeHasInBandFEC(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     int32_t has_in_band_fec = 0;
@@ -210,7 +254,7 @@ jboolean Java_com_steinwurf_opus_Encoder_hasInBandFEC(JNIEnv* env, jobject thiz)
     return has_in_band_fec == 1;
 }
 
-void  Java_com_steinwurf_opus_Encoder_enablePrediction(
+void  Java_com_steinwurf_opus_Encoder_nativeEnablePrediction(
     JNIEnv* env,
     jobject thiz,
     jboolean enable)
@@ -219,7 +263,7 @@ void  Java_com_steinwurf_opus_Encoder_enablePrediction(
     opus_encoder_ctl(encoder, OPUS_SET_PREDICTION_DISABLED(enable ? 0 : 1));
 }
 
-jboolean Java_com_steinwurf_opus_Encoder_isPredictionEnabled(
+jboolean Java_com_steinwurf_opus_Encoder_nativeIsPredictionEnabled(
     JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
@@ -228,7 +272,59 @@ jboolean Java_com_steinwurf_opus_Encoder_isPredictionEnabled(
     return disabled == 0;
 }
 
-jboolean Java_com_steinwurf_opus_Encoder_inDTX(JNIEnv* env, jobject thiz)
+void Java_com_steinwurf_opus_Encoder_nativeEnableDTX(
+    JNIEnv* env,
+    jobject thiz,
+    jboolean enable)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    opus_encoder_ctl(encoder, OPUS_SET_DTX(enable ? 1 : 0));
+}
+
+jboolean Java_com_steinwurf_opus_Encoder_nativeIsDTXEnabled(JNIEnv* env, jobject thiz)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    int32_t dtx = 0;
+    opus_encoder_ctl(encoder, OPUS_GET_DTX(&dtx));
+    return dtx == 1;
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeEnableVBR(
+    JNIEnv* env,
+    jobject thiz,
+    jboolean enable)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    opus_encoder_ctl(encoder, OPUS_SET_VBR(enable ? 1 : 0));
+}
+
+jboolean Java_com_steinwurf_opus_Encoder_nativeIsVBREnabled(JNIEnv* env, jobject thiz)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    int32_t vbr = 0;
+    opus_encoder_ctl(encoder, OPUS_GET_VBR(&vbr));
+    return vbr == 1;
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeEnableVBRConstraint(
+    JNIEnv* env,
+    jobject thiz,
+    jboolean enable)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    opus_encoder_ctl(encoder, OPUS_SET_VBR_CONSTRAINT(enable ? 1 : 0));
+}
+
+jboolean Java_com_steinwurf_opus_Encoder_nativeIsVBRConstrained(
+    JNIEnv* env, jobject thiz)
+{
+    auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
+    int32_t constrained = 0;
+    opus_encoder_ctl(encoder, OPUS_GET_VBR_CONSTRAINT(&constrained));
+    return constrained == 1;
+}
+
+jboolean Java_com_steinwurf_opus_Encoder_nativeInDTX(JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
     int32_t in_dtx = 0;
@@ -236,7 +332,7 @@ jboolean Java_com_steinwurf_opus_Encoder_inDTX(JNIEnv* env, jobject thiz)
     return in_dtx == 1;
 }
 
-void  Java_com_steinwurf_opus_Encoder_setPacketLossPercentage(
+void  Java_com_steinwurf_opus_Encoder_nativeSetPacketLossPercentage(
     JNIEnv* env,
     jobject thiz,
     jint percentage)
@@ -245,7 +341,7 @@ void  Java_com_steinwurf_opus_Encoder_setPacketLossPercentage(
     opus_encoder_ctl(encoder, OPUS_SET_PACKET_LOSS_PERC(percentage));
 }
 
-jint Java_com_steinwurf_opus_Encoder_getPacketLossPercentage(
+jint Java_com_steinwurf_opus_Encoder_nativeGetPacketLossPercentage(
     JNIEnv* env, jobject thiz)
 {
     auto encoder = jutils::get_native_pointer<OpusEncoder>(env, thiz);
@@ -254,6 +350,54 @@ jint Java_com_steinwurf_opus_Encoder_getPacketLossPercentage(
     return percentage;
 }
 
+jint Java_com_steinwurf_opus_Encoder_getStateSize(
+    JNIEnv* /*env*/, jclass /*clazz*/, jint channels)
+{
+    return opus_encoder_get_size(channels);
+}
+
+jlong Java_com_steinwurf_opus_Encoder_nativeCopy(
+    JNIEnv* /*env*/, jclass /*clazz*/, jlong pointer, jint channels)
+{
+    // The state is a flat, self-contained struct allocated with malloc by
+    // opus_encoder_create, so a copy is a plain memcpy.
+    auto size = opus_encoder_get_size(channels);
+    auto copy = malloc(size);
+    if (copy == nullptr)
+    {
+        LOGF << "Memory allocation has failed";
+        return 0;
+    }
+    memcpy(copy, reinterpret_cast<void*>(pointer), size);
+    return reinterpret_cast<jlong>(copy);
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeSnapshot(
+    JNIEnv* env, jclass /*clazz*/, jlong pointer, jint channels,
+    jobject jbuffer, jint offset)
+{
+    auto buffer = static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer));
+    assert(buffer);
+    assert(env->GetDirectBufferCapacity(jbuffer) >=
+           offset + opus_encoder_get_size(channels));
+
+    memcpy(buffer + offset, reinterpret_cast<void*>(pointer),
+           opus_encoder_get_size(channels));
+}
+
+void Java_com_steinwurf_opus_Encoder_nativeRestore(
+    JNIEnv* env, jclass /*clazz*/, jlong pointer, jint channels,
+    jobject jbuffer, jint offset)
+{
+    auto buffer = static_cast<uint8_t*>(env->GetDirectBufferAddress(jbuffer));
+    assert(buffer);
+    assert(env->GetDirectBufferCapacity(jbuffer) >=
+           offset + opus_encoder_get_size(channels));
+
+    memcpy(reinterpret_cast<void*>(pointer), buffer + offset,
+           opus_encoder_get_size(channels));
+}
+
 void Java_com_steinwurf_opus_Encoder_finalize(
     JNIEnv* /*env*/, jobject /*thiz*/, jlong pointer)
 {
@@ -6,6 +6,8 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.ByteBuffer;
+
 /**
  * Instrumented test, which will execute on an Android device.
  *
@@ -28,4 +30,75 @@ public class DecoderInstrumentedTest {
 
         decoder.resetState();
     }
+
+    @Test
+    public void copyDecoder() {
+        Decoder decoder = new Decoder(16000,1);
+        decoder.setGain((short)100);
+
+        Decoder copy = decoder.copy();
+        Assert.assertEquals(100, copy.getGain());
+        copy.setGain((short)200);
+        Assert.assertEquals(100, decoder.getGain());
+
+        ByteBuffer state = ByteBuffer.allocateDirect(Decoder.getSnapshotSize(1));
+        copy.snapshot(state);
+        state.flip();
+        decoder.restore(state);
+        Assert.assertEquals(200, decoder.getGain());
+    }
+
+    @Test
+    public void restoreRequiresSameSamplingRate() {
+        Decoder decoder = new Decoder(16000,1);
+        decoder.setGain((short)100);
+        Decoder other = new Decoder(48000,1);
+
+        ByteBuffer state = ByteBuffer.allocateDirect(Decoder.getSnapshotSize(1));
+        other.snapshot(state);
+        state.flip();
+        try
+        {
+            decoder.restore(state);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // The decoder is left unchanged
+            Assert.assertEquals(100, decoder.getGain());
+            Assert.assertEquals(0, state.position());
+        }
+        decoder.close();
+        other.close();
+    }
+
+    @Test
+    public void restoreRequiresSameChannels() {
+        Decoder decoder = new Decoder(16000,1);
+        decoder.setGain((short)100);
+        Decoder other = new Decoder(16000,2);
+
+        ByteBuffer state = ByteBuffer.allocateDirect(Decoder.getSnapshotSize(2));
+        other.snapshot(state);
+        state.flip();
+        try
+        {
+            decoder.restore(state);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertEquals(100, decoder.getGain());
+            Assert.assertEquals(0, state.position());
+        }
+        decoder.close();
+        other.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedDecoder() {
+        Decoder decoder = new Decoder(16000,1);
+        decoder.close();
+        decoder.resetState();
+    }
 }
@@ -83,4 +83,36 @@ public class EncodeDecodeInstrumentedTest {
         }
         Assert.assertEquals(119434, not0s);
     }
+
+    @Test
+    public void discontinuousTransmission() {
+        int sampleRate = 16000;
+        Decoder decoder = new Decoder(sampleRate,1);
+        Encoder encoder = new Encoder(sampleRate,1, Encoder.Application.VOIP);
+        encoder.enableDTX(true);
+
+        int frameSize = encoder.calculateFrameSize(20000);
+        short[] silence = new short[frameSize];
+        short[] result = new short[frameSize];
+        byte[] encoded = new byte[4000];
+
+        int skipped = 0;
+        int samples = 0;
+        for (int i = 0; i < 100; i++)
+        {
+            int encodedSize = encoder.encodeDiscontinuous(silence, frameSize, encoded);
+            if (encodedSize == Encoder.NO_PACKET)
+            {
+                skipped += 1;
+                samples += decoder.decodeGap(result, 0, result.length, frameSize);
+            }
+            else
+            {
+                samples += decoder.decode(encoded, 0, encodedSize, result, 0, result.length, frameSize, false);
+            }
+        }
+        Assert.assertTrue(encoder.inDTX());
+        Assert.assertNotEquals(0, skipped);
+        Assert.assertEquals(100 * frameSize, samples);
+    }
 }
@@ -6,6 +6,13 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Instrumented test, which will execute on an Android device.
  *
@@ -50,8 +57,181 @@ public class EncoderInstrumentedTest {
         encoder.enablePrediction(false);
         Assert.assertFalse(encoder.isPredictionEnabled());
 
+        Assert.assertFalse(encoder.isDTXEnabled());
+        encoder.enableDTX(true);
+        Assert.assertTrue(encoder.isDTXEnabled());
+
+        Assert.assertTrue(encoder.isVBREnabled());
+        encoder.enableVBR(false);
+        Assert.assertFalse(encoder.isVBREnabled());
+
+        Assert.assertTrue(encoder.isVBRConstrained());
+        encoder.enableVBRConstraint(false);
+        Assert.assertFalse(encoder.isVBRConstrained());
+
         Assert.assertFalse(encoder.inDTX());
 
         encoder.resetState();
     }
+
+    @Test
+    public void copyEncoder() {
+        Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        encoder.setBitrate(20000);
+        encoder.setComplexity(3);
+
+        int frameSize = encoder.calculateFrameSize(20000);
+        short[] frame = new short[frameSize];
+        for (int i = 0; i < frameSize; i++)
+            frame[i] = (short)(8000 * Math.sin(i * 0.05));
+        byte[] encoded = new byte[4000];
+        encoder.encode(frame, frameSize, encoded);
+
+        Encoder copy = encoder.copy();
+        Assert.assertEquals(20000, copy.getBitrate());
+        Assert.assertEquals(3, copy.getComplexity());
+
+        byte[] copyEncoded = new byte[4000];
+        int size = encoder.encode(frame, frameSize, encoded);
+        int copySize = copy.encode(frame, frameSize, copyEncoded);
+        Assert.assertArrayEquals(Arrays.copyOf(encoded, size), Arrays.copyOf(copyEncoded, copySize));
+    }
+
+    @Test
+    public void snapshotRestoreEncoder() {
+        Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        ByteBuffer state = ByteBuffer.allocateDirect(Encoder.getSnapshotSize(1));
+
+        encoder.setBitrate(20000);
+        encoder.snapshot(state);
+        Assert.assertFalse(state.hasRemaining());
+
+        encoder.setBitrate(40000);
+        state.flip();
+        encoder.restore(state);
+        Assert.assertEquals(20000, encoder.getBitrate());
+    }
+
+    @Test
+    public void restoreRequiresSameChannels() {
+        Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        encoder.setBitrate(20000);
+        Encoder other = new Encoder(16000,2, Encoder.Application.VOIP);
+
+        ByteBuffer state = ByteBuffer.allocateDirect(Encoder.getSnapshotSize(2));
+        other.snapshot(state);
+        state.flip();
+        try
+        {
+            encoder.restore(state);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertEquals(20000, encoder.getBitrate());
+            Assert.assertEquals(0, state.position());
+        }
+        encoder.close();
+        other.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedEncoder() {
+        Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        encoder.close();
+        encoder.getBitrate();
+    }
+
+    @Test
+    public void threadSafety() throws InterruptedException {
+        final Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        Assert.assertEquals(ThreadSafety.UNCHECKED, encoder.getThreadSafety());
+        encoder.setThreadSafety(ThreadSafety.SYNCHRONIZED);
+        Assert.assertEquals(ThreadSafety.SYNCHRONIZED, encoder.copy().getThreadSafety());
+
+        final int frameSize = encoder.calculateFrameSize(20000);
+        Thread[] threads = new Thread[4];
+        final AtomicInteger encoded = new AtomicInteger();
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    short[] frame = new short[frameSize];
+                    byte[] output = new byte[4000];
+                    for (int j = 0; j < 100; j++)
+                    {
+                        encoder.encode(frame, frameSize, output);
+                        encoded.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        Assert.assertEquals(400, encoded.get());
+    }
+
+    @Test
+    public void checkedThreadSafety() throws InterruptedException {
+        final Encoder encoder = new Encoder(16000,1, Encoder.Application.VOIP);
+        encoder.setThreadSafety(ThreadSafety.CHECKED);
+        int frameSize = encoder.calculateFrameSize(20000);
+        short[] frame = new short[frameSize];
+        byte[] output = new byte[4000];
+
+        // Hold a call in flight on another thread by entering the encoder's guard
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch leave = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                ThreadSafety mode = encoder.guard.enter();
+                try
+                {
+                    entered.countDown();
+                    leave.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                finally
+                {
+                    encoder.guard.exit(mode);
+                }
+            }
+        });
+        thread.start();
+        Assert.assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        try
+        {
+            encoder.encode(frame, frameSize, output);
+            Assert.fail("Expected ConcurrentModificationException");
+        }
+        catch (ConcurrentModificationException e)
+        {
+            // expected
+        }
+        try
+        {
+            encoder.close();
+            Assert.fail("Expected ConcurrentModificationException");
+        }
+        catch (ConcurrentModificationException e)
+        {
+            // expected
+        }
+
+        leave.countDown();
+        thread.join();
+
+        // Once the other call has returned, the encoder is still open and usable
+        Assert.assertTrue(encoder.encode(frame, frameSize, output) > 0);
+        encoder.close();
+    }
 }
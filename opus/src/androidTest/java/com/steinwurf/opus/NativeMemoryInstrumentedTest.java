@@ -0,0 +1,106 @@
+package com.steinwurf.opus;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class NativeMemoryInstrumentedTest {
+
+    @After
+    public void clearBudget() {
+        NativeMemory.setBudget(0);
+    }
+
+    @Test
+    public void accounting() {
+        long instances = NativeMemory.getLiveInstances();
+        long bytes = NativeMemory.getLiveBytes();
+
+        Encoder encoder = new Encoder(16000,2, Encoder.Application.VOIP);
+        Assert.assertEquals(Encoder.getStateSize(2), encoder.getNativeSize());
+        Decoder decoder = new Decoder(16000,1);
+        Assert.assertEquals(Decoder.getStateSize(1), decoder.getNativeSize());
+        Decoder copy = decoder.copy();
+
+        Assert.assertEquals(instances + 3, NativeMemory.getLiveInstances());
+        Assert.assertEquals(
+            bytes + encoder.getNativeSize() + 2 * decoder.getNativeSize(),
+            NativeMemory.getLiveBytes());
+
+        encoder.close();
+        decoder.close();
+        copy.close();
+        copy.close();
+
+        Assert.assertEquals(instances, NativeMemory.getLiveInstances());
+        Assert.assertEquals(bytes, NativeMemory.getLiveBytes());
+    }
+
+    @Test
+    public void budget() {
+        // Below the size of a single decoder, the budget is exceeded whatever else is live
+        NativeMemory.setBudget(Decoder.getStateSize(1) - 1);
+        Assert.assertEquals(Decoder.getStateSize(1) - 1, NativeMemory.getBudget());
+
+        long instances = NativeMemory.getLiveInstances();
+        try {
+            new Decoder(16000,1);
+            Assert.fail("Expected the budget to be exceeded");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // Other instances may be finalized meanwhile, but the failed one is not accounted for
+        Assert.assertTrue(NativeMemory.getLiveInstances() <= instances);
+
+        NativeMemory.setBudget(0);
+        new Decoder(16000,1).close();
+    }
+
+    @Test
+    public void budgetTimeout() {
+        NativeMemory.setBudget(Decoder.getStateSize(1) - 1, 100);
+
+        long start = System.currentTimeMillis();
+        try {
+            new Decoder(16000,1);
+            Assert.fail("Expected the budget to be exceeded");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void budgetBlocks() throws InterruptedException {
+        NativeMemory.setBudget(Decoder.getStateSize(1) - 1, 10000);
+
+        final CountDownLatch created = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                new Decoder(16000,1).close();
+                created.countDown();
+            }
+        });
+        thread.start();
+        Assert.assertFalse(created.await(100, TimeUnit.MILLISECONDS));
+
+        // Lifting the budget lets the waiting decoder be created
+        NativeMemory.setBudget(0);
+        Assert.assertTrue(created.await(10, TimeUnit.SECONDS));
+        thread.join();
+    }
+}
@@ -0,0 +1,112 @@
+package com.steinwurf.opus;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class OpusRtpInstrumentedTest {
+    @Test
+    public void packetizeDepacketize() {
+        int sampleRate = 16000;
+        Encoder encoder = new Encoder(sampleRate,1, Encoder.Application.AUDIO);
+        Decoder decoder = new Decoder(sampleRate,1);
+        int frameSize = encoder.calculateFrameSize(20000);
+
+        OpusRtpPacketizer packetizer = new OpusRtpPacketizer(encoder, 111, 0x12345678, 65535, 1000);
+        OpusRtpDepacketizer depacketizer = new OpusRtpDepacketizer(decoder);
+
+        short[] frame = new short[frameSize];
+        short[] result = new short[frameSize];
+        ByteBuffer packet = ByteBuffer.allocateDirect(1500);
+
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < frameSize; j++)
+                frame[j] = (short)(8000 * Math.sin((i * frameSize + j) * 0.05));
+
+            int size = packetizer.packetize(frame, 0, frame.length, frameSize, packet, 0, packet.capacity());
+            Assert.assertTrue(size > OpusRtpPacketizer.HEADER_SIZE);
+
+            int decoded = depacketizer.depacketize(packet, 0, size, result, 0, result.length, frameSize);
+            Assert.assertEquals(frameSize, decoded);
+            Assert.assertEquals(111, depacketizer.getPayloadType());
+            Assert.assertEquals(0x12345678, depacketizer.getSsrc());
+            Assert.assertEquals((65535 + i) & 0xFFFF, depacketizer.getSequenceNumber());
+            // 20 ms at the 48 kHz RTP clock rate
+            Assert.assertEquals(1000 + i * 960, depacketizer.getTimestamp());
+            Assert.assertEquals(i == 0, depacketizer.isMarker());
+            Assert.assertEquals(size - OpusRtpPacketizer.HEADER_SIZE, depacketizer.getPayloadSize());
+        }
+    }
+
+    @Test
+    public void paddingOnlyPacket() {
+        Decoder decoder = new Decoder(16000,1);
+        OpusRtpDepacketizer depacketizer = new OpusRtpDepacketizer(decoder);
+
+        // Version 2 with the padding bit set, followed by 4 bytes of padding
+        ByteBuffer packet = ByteBuffer.allocateDirect(16);
+        packet.put(0, (byte)0xA0);
+        packet.put(1, (byte)111);
+        packet.put(15, (byte)4);
+
+        depacketizer.parse(packet, 0, 16);
+        Assert.assertEquals(0, depacketizer.getPayloadSize());
+
+        short[] result = new short[320];
+        try
+        {
+            depacketizer.depacketize(packet, 0, 16, result, 0, result.length, result.length);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertEquals(0, decoder.getLastPacketDuration());
+        }
+        decoder.close();
+    }
+
+    @Test
+    public void discontinuousTransmission() {
+        int sampleRate = 16000;
+        Encoder encoder = new Encoder(sampleRate,1, Encoder.Application.VOIP);
+        encoder.enableDTX(true);
+        int frameSize = encoder.calculateFrameSize(20000);
+
+        OpusRtpPacketizer packetizer = new OpusRtpPacketizer(encoder, 111, 0x12345678, 0, 0);
+        short[] frame = new short[frameSize];
+        ByteBuffer packet = ByteBuffer.allocateDirect(1500);
+
+        int skipped = 0;
+        boolean gap = false;
+        for (int i = 0; i < 100; i++)
+        {
+            int size = packetizer.packetize(frame, 0, frame.length, frameSize, packet, 0, packet.capacity());
+            gap = size == Encoder.NO_PACKET;
+            if (gap)
+                skipped += 1;
+        }
+        Assert.assertNotEquals(0, skipped);
+        // Skipped frames still advance the timestamp, but not the sequence number
+        Assert.assertEquals(100 * 960, packetizer.getTimestamp());
+        Assert.assertEquals(100 - skipped, packetizer.getSequenceNumber());
+
+        // The first packet after a gap starts a talkspurt
+        for (int j = 0; j < frameSize; j++)
+            frame[j] = (short)(8000 * Math.sin(j * 0.05));
+        int size = packetizer.packetize(frame, 0, frame.length, frameSize, packet, 0, packet.capacity());
+        Assert.assertTrue(size > OpusRtpPacketizer.HEADER_SIZE);
+        Assert.assertEquals(gap, (packet.get(1) & 0x80) != 0);
+        encoder.close();
+    }
+}
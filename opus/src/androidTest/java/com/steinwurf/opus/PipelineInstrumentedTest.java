@@ -0,0 +1,309 @@
+package com.steinwurf.opus;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class PipelineInstrumentedTest {
+
+    /**
+     * Runs the drain loops on the calling thread, which makes the tests deterministic.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private static class FramePublisher implements Flow.Publisher<PcmFrame>
+    {
+        private final PcmFrame.Pool pool;
+        private final int count;
+
+        FramePublisher(PcmFrame.Pool pool, int count)
+        {
+            this.pool = pool;
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super PcmFrame> subscriber)
+        {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                int sent = 0;
+
+                @Override
+                public synchronized void request(long n)
+                {
+                    for (long i = 0; i < n && sent < count; i++, sent++)
+                    {
+                        PcmFrame frame = pool.acquire();
+                        for (int j = 0; j < frame.pcm.length; j++)
+                            frame.pcm[j] = (short)(8000 * Math.sin((sent * frame.pcm.length + j) * 0.05));
+                        subscriber.onNext(frame);
+                    }
+                    if (sent == count)
+                    {
+                        sent++;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel()
+                {
+                }
+            });
+        }
+    }
+
+    /**
+     * Subscriber collecting items, which requests nothing until {@link #start()} is called.
+     */
+    private static class Collector<T> implements Flow.Subscriber<T>
+    {
+        final List<T> items = new ArrayList<>();
+        Flow.Subscription subscription;
+        boolean completed;
+
+        void start()
+        {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription s)
+        {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(T item)
+        {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            Assert.fail(throwable.toString());
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+        }
+    }
+
+    /**
+     * Act as a publisher ignoring demand, pushing all items to the stage at once.
+     */
+    private static <T> void flood(Flow.Subscriber<T> stage, List<T> items)
+    {
+        stage.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n)
+            {
+            }
+
+            @Override
+            public void cancel()
+            {
+            }
+        });
+        for (T item : items)
+            stage.onNext(item);
+        stage.onComplete();
+    }
+
+    private static void sine(short[] pcm, int offset)
+    {
+        for (int i = 0; i < pcm.length; i++)
+            pcm[i] = (short)(8000 * Math.sin((offset + i) * 0.05));
+    }
+
+    /**
+     * Flood an encoder stage with 10 ms frames followed by as many 20 ms frames, and get the
+     * duration of each emitted packet.
+     */
+    private static List<Integer> floodEncoder(OverflowPolicy policy, int prefetch, int count)
+    {
+        int sampleRate = 16000;
+        Encoder encoder = new Encoder(sampleRate, 1, Encoder.Application.AUDIO);
+        EncoderStage stage = new EncoderStage(encoder, prefetch, policy, DIRECT);
+        Collector<OpusPacket> collector = new Collector<>();
+        stage.subscribe(collector);
+
+        PcmFrame.Pool pool = new PcmFrame.Pool(count, encoder.calculateFrameSize(20000), 1);
+        List<PcmFrame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            PcmFrame frame = pool.acquire();
+            if (i < count / 2)
+                frame.frameSize = encoder.calculateFrameSize(10000);
+            sine(frame.pcm, i * frame.pcm.length);
+            frames.add(frame);
+        }
+        flood(stage, frames);
+        Assert.assertEquals(count - prefetch, stage.getDroppedCount());
+
+        collector.start();
+        Assert.assertTrue(collector.completed);
+
+        List<Integer> durations = new ArrayList<>();
+        for (OpusPacket packet : collector.items)
+        {
+            durations.add(Decoder.getNumberOfSamples(packet.data, 0, packet.length, sampleRate));
+            packet.release();
+        }
+        encoder.close();
+        return durations;
+    }
+
+    @Test
+    public void dropOldest() {
+        List<Integer> durations = floodEncoder(OverflowPolicy.DROP_OLDEST, 4, 10);
+
+        // Only the newest frames, which are 20 ms long, are left
+        Assert.assertEquals(4, durations.size());
+        for (int duration : durations)
+            Assert.assertEquals(320, duration);
+    }
+
+    @Test
+    public void dropLatest() {
+        List<Integer> durations = floodEncoder(OverflowPolicy.DROP_LATEST, 4, 10);
+
+        // Only the oldest frames, which are 10 ms long, are left
+        Assert.assertEquals(4, durations.size());
+        for (int duration : durations)
+            Assert.assertEquals(160, duration);
+    }
+
+    @Test
+    public void concealDroppedPackets() {
+        int sampleRate = 16000;
+        Encoder encoder = new Encoder(sampleRate, 1, Encoder.Application.AUDIO);
+        int frameSize = encoder.calculateFrameSize(20000);
+
+        OpusPacket.Pool pool = new OpusPacket.Pool(10);
+        List<OpusPacket> packets = new ArrayList<>();
+        short[] pcm = new short[frameSize];
+        for (int i = 0; i < 10; i++)
+        {
+            sine(pcm, i * frameSize);
+            OpusPacket packet = pool.acquire();
+            packet.length = encoder.encode(pcm, 0, pcm.length, frameSize, packet.data, 0, packet.data.length);
+            packets.add(packet);
+        }
+        encoder.close();
+
+        Decoder decoder = new Decoder(sampleRate, 1);
+        DecoderStage stage = new DecoderStage(decoder, 1, frameSize, 4, OverflowPolicy.CONCEAL, DIRECT);
+        Collector<PcmFrame> collector = new Collector<>();
+        stage.subscribe(collector);
+        flood(stage, packets);
+        Assert.assertEquals(6, stage.getDroppedCount());
+
+        collector.start();
+        Assert.assertTrue(collector.completed);
+        Assert.assertEquals(10, collector.items.size());
+
+        int samples = 0;
+        for (int i = 0; i < collector.items.size(); i++)
+        {
+            PcmFrame frame = collector.items.get(i);
+            samples += frame.frameSize;
+
+            // The oldest packets were dropped, so their concealment comes first. Having
+            // nothing decoded to extrapolate from, the decoder conceals them with silence.
+            boolean silent = true;
+            for (int j = 0; j < frame.frameSize; j++)
+                silent &= frame.pcm[j] == 0;
+            Assert.assertEquals("frame " + i, i < 6, silent);
+            frame.release();
+        }
+        Assert.assertEquals(10 * frameSize, samples);
+        decoder.close();
+    }
+
+    @Test
+    public void encodeDecodePipeline() throws InterruptedException {
+        int sampleRate = 16000;
+        Encoder encoder = new Encoder(sampleRate, 1, Encoder.Application.AUDIO);
+        Decoder decoder = new Decoder(sampleRate, 1);
+        int frameSize = encoder.calculateFrameSize(20000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        EncoderStage encoderStage = new EncoderStage(encoder, 8, OverflowPolicy.DROP_OLDEST, executor);
+        DecoderStage decoderStage = new DecoderStage(decoder, 1, frameSize, 8, OverflowPolicy.CONCEAL, executor);
+
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger samples = new AtomicInteger();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        decoderStage.subscribe(new Flow.Subscriber<PcmFrame>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s)
+            {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(PcmFrame frame)
+            {
+                frames.incrementAndGet();
+                samples.addAndGet(frame.frameSize);
+                frame.release();
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                Assert.fail(throwable.toString());
+            }
+
+            @Override
+            public void onComplete()
+            {
+                completed.countDown();
+            }
+        });
+        encoderStage.subscribe(decoderStage);
+        new FramePublisher(new PcmFrame.Pool(8, frameSize, 1), 100).subscribe(encoderStage);
+
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        encoder.close();
+        decoder.close();
+
+        Assert.assertEquals(100, frames.get());
+        Assert.assertEquals(100 * frameSize, samples.get());
+        Assert.assertEquals(0, encoderStage.getDroppedCount());
+        Assert.assertEquals(0, decoderStage.getDroppedCount());
+    }
+}
@@ -0,0 +1,169 @@
+package com.steinwurf.opus;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Instrumented test, which will execute on an Android device.
+ *
+ * @see <a href="http://d.android.com/tools/testing">Testing documentation</a>
+ */
+@RunWith(AndroidJUnit4.class)
+public class TranscoderInstrumentedTest {
+
+    private List<byte[]> encodeSine(int sampleRate, int frameTimeUs, int frames)
+    {
+        Encoder encoder = new Encoder(sampleRate, 1, Encoder.Application.AUDIO);
+        int frameSize = encoder.calculateFrameSize(frameTimeUs);
+        short[] pcm = new short[frameSize];
+        byte[] encoded = new byte[4000];
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < frames; i++)
+        {
+            for (int j = 0; j < frameSize; j++)
+                pcm[j] = (short)sine(i * frameSize + j);
+            int length = encoder.encode(pcm, frameSize, encoded);
+            packets.add(Arrays.copyOf(encoded, length));
+        }
+        encoder.close();
+        return packets;
+    }
+
+    private static double sine(long i)
+    {
+        return 8000 * Math.sin(i * 0.05);
+    }
+
+    private short[] decode(Transcoder.Result result, int sampleRate)
+    {
+        Decoder decoder = new Decoder(sampleRate, 1);
+        short[] pcm = new short[result.packets.size() * result.frameSize];
+        int offset = 0;
+        for (byte[] packet : result.packets)
+        {
+            offset += decoder.decode(packet, 0, packet.length, pcm, offset, pcm.length - offset,
+                result.frameSize, false);
+        }
+        decoder.close();
+        Assert.assertEquals(pcm.length, offset);
+        // Trim the pre-skip and the padding of the last packet
+        return Arrays.copyOfRange(pcm, result.preSkip, result.preSkip + (int)result.sampleCount);
+    }
+
+    private static double snr(short[] reference, short[] pcm)
+    {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < reference.length; i++)
+        {
+            signal += (double)reference[i] * reference[i];
+            noise += (double)(reference[i] - pcm[i]) * (reference[i] - pcm[i]);
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    @Test
+    public void transcodeSegments() throws InterruptedException {
+        int sampleRate = 16000;
+        // 1000 frames of 20 ms
+        List<byte[]> packets = encodeSine(sampleRate, 20000, 1000);
+
+        Transcoder transcoder = new Transcoder(sampleRate, 1, Encoder.Application.AUDIO, 60000,
+            new Transcoder.Configuration() {
+                @Override
+                public void configure(Encoder encoder)
+                {
+                    encoder.setBitrate(12000);
+                }
+            });
+        transcoder.setSegmentLength(50);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Transcoder.Result result = transcoder.transcode(packets, executor);
+        executor.shutdown();
+        transcoder.close();
+
+        Assert.assertEquals(1000 * 320, result.sampleCount);
+        Assert.assertEquals(960, result.frameSize);
+        Assert.assertEquals(transcoder.getPreSkip(), result.preSkip);
+        // The pre-skip and 320000 samples in frames of 960, the last one padded
+        Assert.assertEquals((result.preSkip + 320000 + 959) / 960, result.packets.size());
+        for (byte[] packet : result.packets)
+        {
+            Assert.assertEquals(960, Decoder.getNumberOfSamples(packet, 0, packet.length, sampleRate));
+        }
+    }
+
+    @Test
+    public void parallelMatchesSingleSegment() throws InterruptedException {
+        int sampleRate = 16000;
+        // 4 seconds in frames of 20 ms, delayed by the encoder's lookahead
+        List<byte[]> packets = encodeSine(sampleRate, 20000, 200);
+        Encoder encoder = new Encoder(sampleRate, 1, Encoder.Application.AUDIO);
+        int preSkip = encoder.getLookahead();
+        encoder.close();
+
+        Transcoder transcoder = new Transcoder(sampleRate, 1, Encoder.Application.AUDIO, 20000,
+            new Transcoder.Configuration() {
+                @Override
+                public void configure(Encoder encoder)
+                {
+                    encoder.setBitrate(32000);
+                }
+            });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        transcoder.setSegmentLength(200);
+        Transcoder.Result single = transcoder.transcode(packets, preSkip, executor);
+        transcoder.setSegmentLength(25);
+        Transcoder.Result parallel = transcoder.transcode(packets, preSkip, executor);
+        executor.shutdown();
+        transcoder.close();
+
+        Assert.assertEquals(200 * 320 - preSkip, single.sampleCount);
+        Assert.assertEquals(single.sampleCount, parallel.sampleCount);
+        Assert.assertEquals(single.preSkip, parallel.preSkip);
+        Assert.assertEquals(single.packets.size(), parallel.packets.size());
+        // The first segment is transcoded from the same state either way
+        for (int i = 0; i < 25; i++)
+            Assert.assertArrayEquals(single.packets.get(i), parallel.packets.get(i));
+
+        short[] singlePcm = decode(single, sampleRate);
+        short[] parallelPcm = decode(parallel, sampleRate);
+        Assert.assertTrue(snr(singlePcm, parallelPcm) > 10);
+
+        // With both pre-skips trimmed, the output lines up with the original signal
+        short[] original = new short[singlePcm.length];
+        for (int i = 0; i < original.length; i++)
+            original[i] = (short)sine(i);
+        Assert.assertTrue(snr(original, singlePcm) > 6);
+        Assert.assertTrue(snr(original, parallelPcm) > 6);
+    }
+
+    @Test
+    public void preRollCoversLookahead() {
+        // 2.5 ms frames, shorter than the 6.5 ms lookahead
+        Transcoder transcoder = new Transcoder(16000, 1, Encoder.Application.AUDIO, 2500, null);
+        transcoder.setPreRoll(3);
+        Assert.assertEquals(3, transcoder.getPreRoll());
+        try
+        {
+            transcoder.setPreRoll(2);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertEquals(3, transcoder.getPreRoll());
+        }
+        transcoder.close();
+    }
+}
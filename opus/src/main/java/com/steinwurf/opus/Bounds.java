@@ -0,0 +1,26 @@
+package com.steinwurf.opus;
+
+/**
+ * Checks the offset and size arguments passed along with buffers, before they reach native
+ * code which trusts them.
+ */
+final class Bounds
+{
+    private Bounds()
+    {
+    }
+
+    /**
+     * Whether a region does not lie within a buffer.
+     * Unlike {@code length < offset + size}, this cannot overflow, and it rejects a negative
+     * offset or size.
+     * @param length The length or capacity of the buffer.
+     * @param offset The offset of the region.
+     * @param size The size of the region.
+     * @return true if the region is not within {@code [0, length)}.
+     */
+    static boolean isOutside(int length, int offset, int size)
+    {
+        return offset < 0 || size < 0 || offset > length - size;
+    }
+}
@@ -0,0 +1,92 @@
+package com.steinwurf.opus;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of recyclable buffers.
+ * Buffers are created on demand and kept for reuse once released, up to the capacity of the
+ * pool. Buffers released while the pool is full are discarded.
+ * @param <T> the buffer type
+ */
+abstract class BufferPool<T>
+{
+    private final ArrayDeque<T> free;
+    private final int capacity;
+
+    /**
+     * Create buffer pool.
+     * @param capacity Maximum number of released buffers kept for reuse.
+     */
+    BufferPool(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException(String.format("Invalid capacity %d", capacity));
+
+        this.capacity = capacity;
+        this.free = new ArrayDeque<T>(capacity);
+    }
+
+    /**
+     * Create a new buffer, called when no released buffer is available.
+     * @return a new buffer
+     */
+    abstract T create();
+
+    /**
+     * Discard a buffer that is not kept for reuse.
+     * The default implementation leaves it to the garbage collector.
+     * @param buffer the buffer to discard
+     */
+    void discard(T buffer)
+    {
+    }
+
+    /**
+     * Get a buffer from the pool, creating one if none is available.
+     * @return a buffer
+     */
+    T acquire()
+    {
+        T buffer;
+        synchronized (free)
+        {
+            buffer = free.pollLast();
+        }
+        return buffer != null ? buffer : create();
+    }
+
+    /**
+     * Return a buffer to the pool.
+     * @param buffer the buffer to return
+     */
+    void recycle(T buffer)
+    {
+        synchronized (free)
+        {
+            if (free.size() < capacity)
+            {
+                free.addLast(buffer);
+                return;
+            }
+        }
+        discard(buffer);
+    }
+
+    /**
+     * Discard all buffers kept for reuse.
+     */
+    void clear()
+    {
+        for (;;)
+        {
+            T buffer;
+            synchronized (free)
+            {
+                buffer = free.pollLast();
+            }
+            if (buffer == null)
+                return;
+            discard(buffer);
+        }
+    }
+}
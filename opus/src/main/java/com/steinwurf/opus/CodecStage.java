@@ -0,0 +1,427 @@
+package com.steinwurf.opus;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Base of the pipeline stages wrapping an {@link Encoder} or a {@link Decoder}.
+ *
+ * A stage requests a bounded number of items (the prefetch) from its upstream publisher,
+ * buffers them and converts them on the supplied executor, only as fast as its single
+ * downstream subscriber requests output. Upstream demand is replenished in batches as
+ * buffered items are consumed. Items that arrive while the buffer is full are handled
+ * according to the stage's {@link OverflowPolicy}.
+ *
+ * All conversion happens in a serialized drain loop, so the wrapped codec is never used by
+ * more than one thread at a time.
+ * @param <I> the input item type
+ * @param <O> the output item type
+ */
+abstract class CodecStage<I, O> implements Flow.Processor<I, O>
+{
+    private final Executor executor;
+    private final int prefetch;
+    private final int limit;
+    private final OverflowPolicy policy;
+
+    private final ArrayDeque<I> queue;
+
+    /**
+     * Number of items dropped under {@link OverflowPolicy#CONCEAL} that are still to be
+     * concealed. The dropped items were always the oldest, so their concealment precedes all
+     * buffered items. Guarded by the queue.
+     */
+    private int concealed;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicReference<Flow.Subscriber<? super O>> downstream =
+            new AtomicReference<Flow.Subscriber<? super O>>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile Flow.Subscription upstream;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+
+    /**
+     * Number of items consumed since upstream demand was last replenished.
+     * Only accessed from the drain loop.
+     */
+    private int consumed;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    /**
+     * Create stage.
+     * @param prefetch Number of items requested from upstream ahead of downstream demand.
+     * @param policy What to do with items arriving while the prefetch buffer is full.
+     * @param executor Executor running the conversions.
+     */
+    CodecStage(int prefetch, OverflowPolicy policy, Executor executor)
+    {
+        if (prefetch < 1)
+            throw new IllegalArgumentException(String.format("Invalid prefetch %d", prefetch));
+        if (policy == null)
+            throw new NullPointerException("policy");
+        if (executor == null)
+            throw new NullPointerException("executor");
+
+        this.prefetch = prefetch;
+        this.limit = prefetch - (prefetch >> 2);
+        this.policy = policy;
+        this.executor = executor;
+        this.queue = new ArrayDeque<I>(prefetch);
+    }
+
+    /**
+     * Convert an input item.
+     * @param item the input item, which is released by the caller afterwards
+     * @return the output item, or null if the input item produced no output
+     */
+    abstract O process(I item);
+
+    /**
+     * Release an input item that is no longer needed.
+     * @param item the input item
+     */
+    abstract void release(I item);
+
+    /**
+     * Produce the output item replacing an input item dropped under
+     * {@link OverflowPolicy#CONCEAL}.
+     * @return the output item, or null if the dropped item produced no output
+     */
+    O conceal()
+    {
+        throw new UnsupportedOperationException("Concealment is not supported by this stage");
+    }
+
+    /**
+     * Get the next output item, converting the next buffered input item or concealing the
+     * next dropped one.
+     * @return the output item, or null if none is available
+     */
+    private O next()
+    {
+        for (;;)
+        {
+            I item;
+            synchronized (queue)
+            {
+                if (concealed != 0)
+                {
+                    concealed--;
+                    item = null;
+                }
+                else
+                {
+                    item = queue.pollFirst();
+                    if (item == null)
+                        return null;
+                }
+            }
+            if (item == null)
+            {
+                O output = conceal();
+                if (output != null)
+                    return output;
+                continue;
+            }
+
+            if (++consumed == limit)
+            {
+                consumed = 0;
+                upstream.request(limit);
+            }
+
+            O output;
+            try
+            {
+                output = process(item);
+            }
+            finally
+            {
+                release(item);
+            }
+            if (output != null)
+                return output;
+        }
+    }
+
+    /**
+     * Whether there are no more output items available right now.
+     * @return true if no more output items are available
+     */
+    private boolean isEmpty()
+    {
+        synchronized (queue)
+        {
+            return concealed == 0 && queue.isEmpty();
+        }
+    }
+
+    /**
+     * Get the policy used when the prefetch buffer overflows.
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Get the number of input items dropped due to overflow.
+     * @return the number of dropped items
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super O> subscriber)
+    {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber");
+
+        if (!downstream.compareAndSet(null, subscriber))
+        {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n)
+                {
+                }
+
+                @Override
+                public void cancel()
+                {
+                }
+            });
+            subscriber.onError(new IllegalStateException("Stage supports only one subscriber"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n)
+            {
+                if (n <= 0)
+                {
+                    Flow.Subscription s = upstream;
+                    if (s != null)
+                        s.cancel();
+                    onError(new IllegalArgumentException(
+                        String.format("Invalid request %d, must be positive", n)));
+                    return;
+                }
+                addDemand(n);
+                schedule();
+            }
+
+            @Override
+            public void cancel()
+            {
+                cancelled = true;
+                Flow.Subscription s = upstream;
+                if (s != null)
+                    s.cancel();
+                schedule();
+            }
+        });
+        schedule();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        if (upstream != null)
+        {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(I item)
+    {
+        if (item == null)
+            throw new NullPointerException("item");
+
+        if (done || cancelled)
+        {
+            release(item);
+            return;
+        }
+
+        I drop = null;
+        synchronized (queue)
+        {
+            if (queue.size() == prefetch)
+            {
+                if (policy == OverflowPolicy.DROP_LATEST)
+                {
+                    drop = item;
+                    item = null;
+                }
+                else
+                {
+                    drop = queue.pollFirst();
+                    // Conceal the dropped item in its place, ahead of the buffered ones
+                    if (policy == OverflowPolicy.CONCEAL)
+                        concealed++;
+                }
+            }
+            if (item != null)
+                queue.addLast(item);
+        }
+
+        if (drop != null)
+        {
+            release(drop);
+            dropped.incrementAndGet();
+        }
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+        if (done)
+            return;
+        error = throwable;
+        done = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete()
+    {
+        done = true;
+        schedule();
+    }
+
+    private void addDemand(long n)
+    {
+        for (;;)
+        {
+            long current = demand.get();
+            if (current == Long.MAX_VALUE)
+                return;
+            long updated = current + n;
+            if (updated < 0)
+                updated = Long.MAX_VALUE;
+            if (demand.compareAndSet(current, updated))
+                return;
+        }
+    }
+
+    private void schedule()
+    {
+        if (wip.getAndIncrement() == 0)
+            executor.execute(drainTask);
+    }
+
+    private void clear()
+    {
+        for (;;)
+        {
+            I item;
+            synchronized (queue)
+            {
+                concealed = 0;
+                item = queue.pollFirst();
+            }
+            if (item == null)
+                return;
+            release(item);
+        }
+    }
+
+    private boolean checkTerminated(boolean d, boolean empty, Flow.Subscriber<? super O> subscriber)
+    {
+        if (cancelled)
+        {
+            clear();
+            return true;
+        }
+        if (d && empty)
+        {
+            cancelled = true;
+            Throwable t = error;
+            if (t != null)
+                subscriber.onError(t);
+            else
+                subscriber.onComplete();
+            return true;
+        }
+        return false;
+    }
+
+    private void drain()
+    {
+        int missed = 1;
+        for (;;)
+        {
+            Flow.Subscriber<? super O> subscriber = downstream.get();
+            if (subscriber != null)
+            {
+                long requested = demand.get();
+                long emitted = 0;
+
+                while (emitted != requested)
+                {
+                    boolean d = done;
+                    O output;
+                    try
+                    {
+                        output = cancelled ? null : next();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        Flow.Subscription s = upstream;
+                        if (s != null)
+                            s.cancel();
+                        cancelled = true;
+                        clear();
+                        subscriber.onError(e);
+                        return;
+                    }
+
+                    if (checkTerminated(d, output == null, subscriber))
+                        return;
+                    if (output == null)
+                        break;
+
+                    subscriber.onNext(output);
+                    emitted++;
+                }
+
+                if (emitted == requested && checkTerminated(done, isEmpty(), subscriber))
+                    return;
+
+                if (emitted != 0 && requested != Long.MAX_VALUE)
+                    demand.addAndGet(-emitted);
+            }
+            else if (cancelled)
+            {
+                clear();
+                return;
+            }
+
+            missed = wip.addAndGet(-missed);
+            if (missed == 0)
+                return;
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package com.steinwurf.opus;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static com.steinwurf.opus.ReturnValueCheck.check;
 
-public class Decoder {
+/**
+ * Opus decoder.
+ *
+ * A decoder must only be used by one thread at a time. Use
+ * {@link #setThreadSafety(ThreadSafety)} to detect concurrent use, or to serialize it when
+ * sharing a decoder is unavoidable. Using a decoder after {@link #close()} has returned fails
+ * with an {@link IllegalStateException}. Closing it while another thread is inside a call is
+ * only detected by {@link ThreadSafety#CHECKED}, and waited for by
+ * {@link ThreadSafety#SYNCHRONIZED}.
+ */
+public class Decoder implements AutoCloseable {
     static
     {
         System.loadLibrary("opus_decoder_jni");
@@ -12,8 +23,25 @@ public class Decoder {
 
     /**
      * A long representing a pointer to the underlying native object.
+     * Volatile so a call made after {@link #close()} has returned sees it has been cleared,
+     * whichever thread closed the decoder.
      */
-    private final long pointer;
+    private volatile long pointer;
+
+    /**
+     * Guards the native part against concurrent use. Package-private for tests.
+     */
+    final UsageGuard guard = new UsageGuard("Decoder");
+
+    /**
+     * The sampling rate the decoder was created with.
+     */
+    private final int samplingRate;
+
+    /**
+     * The number of channels the decoder was created with.
+     */
+    private final int channels;
 
     /**
      * Create decoder.
@@ -33,16 +61,43 @@ public class Decoder {
             throw new IllegalArgumentException(String.format("Invalid number of channels %d", channels));
         }
 
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+        NativeMemory.reserve(getNativeSize());
         pointer = init(samplingRate, channels);
+        if (pointer == 0)
+        {
+            NativeMemory.release(getNativeSize());
+            throw new OutOfMemoryError("Failed to create decoder");
+        }
     }
     private static native long init(int samplingRate, int channels);
 
+    private Decoder(long pointer, int samplingRate, int channels)
+    {
+        this.pointer = pointer;
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+    }
+
     /**
      * Reset the state to be equivalent to a freshly initialized decoder.
      * This should be called when switching streams in order to prevent the back to back decoding
      * from giving different results from one at a time decoding.
      */
-    public native void resetState();
+    public void resetState()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeResetState();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeResetState();
 
     /**
      * Decode an Opus packet.
@@ -66,12 +121,20 @@ public class Decoder {
      */
     public int decode(byte[] input, int inputOffset, int inputSize, short[] pcm, int pcmOffset, int pcmSize, int frameSize, boolean decodeFEC)
     {
-        if (input.length < (inputSize + inputOffset))
+        if (input != null && Bounds.isOutside(input.length, inputOffset, inputSize))
             throw new IllegalArgumentException("invalid input buffer arguments");
-        if (pcm.length < (pcmSize + pcmOffset))
+        if (Bounds.isOutside(pcm.length, pcmOffset, pcmSize))
             throw new IllegalArgumentException("invalid pcm buffer arguments");
 
-        return check(nativeDecode(input, inputOffset, inputSize, pcm, pcmOffset, pcmSize, frameSize, decodeFEC));
+        ThreadSafety mode = enter();
+        try
+        {
+            return check(nativeDecode(input, inputOffset, inputSize, pcm, pcmOffset, pcmSize, frameSize, decodeFEC));
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
 
     /**
@@ -92,7 +155,96 @@ public class Decoder {
      */
     public int decode(byte[] input, short[] pcm, int frameSize, boolean decodeFEC)
     {
-        return decode(input, 0, input.length, pcm, 0, pcm.length, frameSize, decodeFEC);
+        return decode(input, 0, input == null ? 0 : input.length, pcm, 0, pcm.length, frameSize, decodeFEC);
+    }
+
+    /**
+     * Decode an Opus packet held in a direct buffer.
+     * The packet is read in place, without being copied.
+     * The buffer's position and limit are not used or changed.
+     * @param input Input payload. This must be a direct buffer.
+     * @param inputOffset Input payload offset.
+     * @param inputSize Input payload size.
+     * @param pcm Output signal (interleaved if 2 channels).
+     *               Length is frameSize * channels * sizeof(short)
+     * @param pcmOffset Output signal offset.
+     * @param pcmSize Output signal size.
+     * @param frameSize Number of samples per channel of available space in output.
+     *                  See {@link #decode(byte[], int, int, short[], int, int, int, boolean)}.
+     * @param decodeFEC request that any in-band forward error correction data be decoded.
+     *                  If no such data is available, the frame is decoded as if it were lost.
+     * @return Number of decoded samples
+     */
+    public int decodeBuffer(ByteBuffer input, int inputOffset, int inputSize, short[] pcm, int pcmOffset, int pcmSize, int frameSize, boolean decodeFEC)
+    {
+        if (!input.isDirect())
+            throw new IllegalArgumentException("input buffer must be direct");
+        if (Bounds.isOutside(input.capacity(), inputOffset, inputSize))
+            throw new IllegalArgumentException("invalid input buffer arguments");
+        if (Bounds.isOutside(pcm.length, pcmOffset, pcmSize))
+            throw new IllegalArgumentException("invalid pcm buffer arguments");
+
+        ThreadSafety mode = enter();
+        try
+        {
+            return check(nativeDecodeBuffer(input, inputOffset, inputSize, pcm, pcmOffset, pcmSize, frameSize, decodeFEC));
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+
+    private native int nativeDecodeBuffer(
+            ByteBuffer input,
+            int inputOffset,
+            int inputSize,
+            short[] pcm,
+            int pcmOffset,
+            int pcmSize,
+            int frameSize,
+            boolean decodeFEC);
+
+    /**
+     * Fill a gap in the stream, for instance one left by a sender using discontinuous
+     * transmission (see {@link Encoder#encodeDiscontinuous(short[], int, int, int, byte[], int, int)}).
+     * If the gap follows a DTX frame the decoder produces comfort noise, otherwise the gap
+     * is concealed as packet loss.
+     * @param pcm Output signal (interleaved if 2 channels).
+     * @param pcmOffset Output signal offset.
+     * @param pcmSize Output signal size.
+     * @param gapSize Number of samples per channel missing from the stream.
+     *                This <b>must</b> be a multiple of 2.5 ms.
+     * @return Number of decoded samples
+     */
+    public int decodeGap(short[] pcm, int pcmOffset, int pcmSize, int gapSize)
+    {
+        if (Bounds.isOutside(pcm.length, pcmOffset, pcmSize))
+            throw new IllegalArgumentException("invalid pcm buffer arguments");
+        if (gapSize < 0 || gapSize % (samplingRate / 400) != 0)
+            throw new IllegalArgumentException(String.format("Invalid gap size %d", gapSize));
+        if (pcmSize < gapSize * channels)
+            throw new IllegalArgumentException("pcm buffer too small for gap");
+
+        // Conceal in chunks of at most 20 ms, which keeps the decoder's concealment and
+        // comfort noise generation in their intended operating range.
+        int chunk = samplingRate / 50;
+        int decoded = 0;
+        ThreadSafety mode = enter();
+        try
+        {
+            while (decoded < gapSize)
+            {
+                int size = Math.min(chunk, gapSize - decoded);
+                int offset = pcmOffset + decoded * channels;
+                decoded += check(nativeDecode(null, 0, 0, pcm, offset, pcmSize - decoded * channels, size, false));
+            }
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        return decoded;
     }
 
     private native int nativeDecode(
@@ -105,13 +257,39 @@ public class Decoder {
             int frameSize,
             boolean decodeFEC);
 
+    /**
+     * Get the number of samples of an Opus packet.
+     * @param packet Opus packet.
+     * @param offset Packet offset.
+     * @param size Packet size.
+     * @param sampleRate Sampling rate in Hz.
+     *                   This must be a multiple of 400, or inaccurate results will be returned.
+     * @return Number of samples (per channel)
+     */
+    public static int getNumberOfSamples(byte[] packet, int offset, int size, int sampleRate)
+    {
+        if (Bounds.isOutside(packet.length, offset, size))
+            throw new IllegalArgumentException("invalid packet buffer arguments");
+
+        return check(nativeGetNumberOfSamples(packet, offset, size, sampleRate));
+    }
+    private static native int nativeGetNumberOfSamples(byte[] packet, int offset, int size, int sampleRate);
+
     /**
      * Get the audio bandwidth
      * @return the audio bandwidth
      */
     public Bandwidth getBandwidth()
     {
-        return Bandwidth.get(nativeGetBandwidth());
+        ThreadSafety mode = enter();
+        try
+        {
+            return Bandwidth.get(nativeGetBandwidth());
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native int nativeGetBandwidth();
 
@@ -119,20 +297,56 @@ public class Decoder {
      * Get the sampling rate the decoder was initialized with.
      * @return Sampling rate of decoder
      */
-    public native int getSampleRate();
+    public int getSampleRate()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetSampleRate();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetSampleRate();
 
     /**
      * Get the duration (in samples) of the last packet successfully decoded or concealed.
      * @return Number of samples (at current sampling rate).
      */
-    public native int getLastPacketDuration();
+    public int getLastPacketDuration()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetLastPacketDuration();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetLastPacketDuration();
 
 
     /**
      * Get the decoder's configured gain adjustment.
      * @return Amount to scale PCM signal by in Q8 dB units.
      */
-    public native int getGain();
+    public int getGain()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetGain();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetGain();
 
     /**
      * Configures decoder gain adjustment.
@@ -144,13 +358,223 @@ public class Decoder {
      *
      * @param gain Amount to scale PCM signal by in Q8 dB units.
      */
-    public native void setGain(short gain);
+    public void setGain(short gain)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetGain(gain);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeSetGain(short gain);
 
     /**
      * Get the duration (in samples) of the last packet successfully decoded or concealed.
      * @return pitch period at 48 kHz (or 0 if not available)
      */
-    public native int getPitch();
+    public int getPitch()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetPitch();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetPitch();
+
+    /**
+     * Get the size of the native decoder state.
+     * @param channels Number of channels (1 or 2).
+     * @return The size of the state in bytes.
+     */
+    public static native int getStateSize(int channels);
+
+    /**
+     * Get the native memory held by this decoder.
+     * This is accounted for in {@link NativeMemory} while the decoder is live.
+     * @return The size of the native state in bytes.
+     */
+    public int getNativeSize()
+    {
+        return getStateSize(channels);
+    }
+
+    /**
+     * Create a copy of this decoder.
+     * The copy has the same state and configuration as this decoder, and the two evolve
+     * independently afterwards. Copying is much cheaper than creating and configuring a new
+     * decoder.
+     * @return the copy
+     */
+    public Decoder copy()
+    {
+        NativeMemory.reserve(getNativeSize());
+        long copy = 0;
+        try
+        {
+            ThreadSafety mode = enter();
+            try
+            {
+                copy = nativeCopy(pointer, channels);
+            }
+            finally
+            {
+                guard.exit(mode);
+            }
+        }
+        finally
+        {
+            if (copy == 0)
+                NativeMemory.release(getNativeSize());
+        }
+        if (copy == 0)
+            throw new OutOfMemoryError("Memory allocation has failed");
+
+        Decoder decoderCopy = new Decoder(copy, samplingRate, channels);
+        decoderCopy.setThreadSafety(getThreadSafety());
+        return decoderCopy;
+    }
+    private static native long nativeCopy(long pointer, int channels);
+
+    /**
+     * Get the size of a snapshot taken by {@link #snapshot(ByteBuffer)}.
+     * This is the native state size plus a small header identifying the decoder.
+     * @param channels Number of channels (1 or 2).
+     * @return The size of the snapshot in bytes.
+     */
+    public static int getSnapshotSize(int channels)
+    {
+        return SnapshotHeader.SIZE + getStateSize(channels);
+    }
+
+    /**
+     * Store the state and configuration of this decoder.
+     * {@link #getSnapshotSize(int)} bytes are written at the buffer's position, which is
+     * advanced accordingly.
+     * @param state A direct buffer to store the state in.
+     */
+    public void snapshot(ByteBuffer state)
+    {
+        int size = checkStateBuffer(state);
+        SnapshotHeader.write(state, SnapshotHeader.DECODER, samplingRate, channels, size);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSnapshot(pointer, channels, state, state.position() + SnapshotHeader.SIZE);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        state.position(state.position() + SnapshotHeader.SIZE + size);
+    }
+    private static native void nativeSnapshot(long pointer, int channels, ByteBuffer state, int offset);
+
+    /**
+     * Restore the state and configuration of this decoder from a snapshot.
+     * {@link #getSnapshotSize(int)} bytes are read from the buffer's position, which is
+     * advanced accordingly.
+     * The snapshot <b>must</b> have been taken by {@link #snapshot(ByteBuffer)} in this process.
+     * @param state A direct buffer holding the snapshot.
+     * @throws IllegalArgumentException if the snapshot was taken from a decoder with a different
+     *         sampling rate or number of channels. The decoder is left unchanged in that case.
+     */
+    public void restore(ByteBuffer state)
+    {
+        int size = checkStateBuffer(state);
+        SnapshotHeader.check(state, SnapshotHeader.DECODER, samplingRate, channels, size);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeRestore(pointer, channels, state, state.position() + SnapshotHeader.SIZE);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        state.position(state.position() + SnapshotHeader.SIZE + size);
+    }
+    private static native void nativeRestore(long pointer, int channels, ByteBuffer state, int offset);
+
+    private int checkStateBuffer(ByteBuffer state)
+    {
+        if (!state.isDirect())
+            throw new IllegalArgumentException("state buffer must be direct");
+        int size = getStateSize(channels);
+        if (state.remaining() < SnapshotHeader.SIZE + size)
+            throw new IllegalArgumentException("state buffer too small");
+        return size;
+    }
+
+    /**
+     * Set how this decoder guards against use from multiple threads.
+     * This must be set before the decoder is shared between threads.
+     * @param mode the thread safety mode (default: {@link ThreadSafety#UNCHECKED})
+     */
+    public void setThreadSafety(ThreadSafety mode)
+    {
+        guard.setMode(mode);
+    }
+
+    /**
+     * Get how this decoder guards against use from multiple threads.
+     * @return the thread safety mode
+     */
+    public ThreadSafety getThreadSafety()
+    {
+        return guard.getMode();
+    }
+
+    /**
+     * Start a call into the native part.
+     * @return the mode to pass to {@link UsageGuard#exit(ThreadSafety)}
+     */
+    private ThreadSafety enter()
+    {
+        ThreadSafety mode = guard.enter();
+        if (pointer == 0)
+        {
+            guard.exit(mode);
+            throw new IllegalStateException("Decoder has been closed");
+        }
+        return mode;
+    }
+
+    /**
+     * Releases the underlying native part, without waiting for the object to be finalized.
+     * The decoder must not be used after it has been closed. Closing it again has no effect.
+     */
+    @Override
+    public void close()
+    {
+        long released;
+        ThreadSafety mode = guard.enter();
+        try
+        {
+            synchronized (this)
+            {
+                released = pointer;
+                pointer = 0;
+            }
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        if (released != 0)
+        {
+            finalize(released);
+            NativeMemory.release(getNativeSize());
+        }
+    }
 
     /**
      * Finalizes the object and it's underlying native part.
@@ -158,7 +582,7 @@ public class Decoder {
     @Override
     protected void finalize() throws Throwable
     {
-        finalize(pointer);
+        close();
         super.finalize();
     }
 
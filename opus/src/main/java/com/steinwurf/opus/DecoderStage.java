@@ -0,0 +1,90 @@
+package com.steinwurf.opus;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A pipeline stage decoding Opus packets into PCM frames.
+ *
+ * Incoming packets are released back to their pool once decoded, and the emitted frames are
+ * taken from a pool owned by the stage. Subscribers must {@link PcmFrame#release()} each
+ * frame when done with it.
+ *
+ * With {@link OverflowPolicy#CONCEAL}, each packet dropped due to overflow is replaced by a
+ * frame produced by the decoder's packet loss concealment, so the output keeps its timing.
+ *
+ * The decoder must not be used by anything else while it is owned by the stage.
+ */
+public class DecoderStage extends CodecStage<OpusPacket, PcmFrame>
+{
+    private final Decoder decoder;
+    private final int frameSize;
+    private final PcmFrame.Pool frames;
+
+    /**
+     * Create decoder stage.
+     * @param decoder The decoder to use.
+     * @param channels Number of channels (1 or 2) the decoder was created with.
+     * @param frameSize Maximum number of samples per channel in a packet.
+     *                  This is also the duration concealed for a dropped packet if no packet
+     *                  has been decoded yet.
+     * @param prefetch Number of packets requested from upstream ahead of downstream demand.
+     * @param policy What to do with packets arriving while the prefetch buffer is full.
+     * @param executor Executor running the decoding, for instance a fixed thread pool.
+     */
+    public DecoderStage(Decoder decoder, int channels, int frameSize, int prefetch,
+                        OverflowPolicy policy, Executor executor)
+    {
+        super(prefetch, policy, executor);
+        if (decoder == null)
+            throw new NullPointerException("decoder");
+
+        this.decoder = decoder;
+        this.frameSize = frameSize;
+        this.frames = new PcmFrame.Pool(prefetch, frameSize, channels);
+    }
+
+    @Override
+    PcmFrame process(OpusPacket packet)
+    {
+        PcmFrame frame = frames.acquire();
+        try
+        {
+            frame.frameSize = decoder.decode(
+                packet.data, 0, packet.length,
+                frame.pcm, 0, frame.pcm.length, frameSize, false);
+        }
+        catch (RuntimeException e)
+        {
+            frame.release();
+            throw e;
+        }
+        return frame;
+    }
+
+    @Override
+    void release(OpusPacket packet)
+    {
+        packet.release();
+    }
+
+    @Override
+    PcmFrame conceal()
+    {
+        int duration = decoder.getLastPacketDuration();
+        if (duration <= 0 || duration > frameSize)
+            duration = frameSize;
+
+        PcmFrame frame = frames.acquire();
+        try
+        {
+            frame.frameSize = decoder.decode(
+                null, 0, 0, frame.pcm, 0, frame.pcm.length, duration, false);
+        }
+        catch (RuntimeException e)
+        {
+            frame.release();
+            throw e;
+        }
+        return frame;
+    }
+}
@@ -1,17 +1,23 @@
 package com.steinwurf.opus;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static com.steinwurf.opus.ReturnValueCheck.check;
 
 /**
+ * Opus encoder.
+ *
+ * An encoder must only be used by one thread at a time. Use
+ * {@link #setThreadSafety(ThreadSafety)} to detect concurrent use, or to serialize it when
+ * sharing an encoder is unavoidable. Using an encoder after {@link #close()} has returned fails
+ * with an {@link IllegalStateException}. Closing it while another thread is inside a call is
+ * only detected by {@link ThreadSafety#CHECKED}, and waited for by
+ * {@link ThreadSafety#SYNCHRONIZED}.
+ *
  * Missing
  * OPUS_GET_APPLICATION
  * OPUS_GET_FORCE_CHANNELS
- * OPUS_GET_DTX
- * OPUS_GET_VBR
- * OPUS_GET_VBR_CONSTRAINT
- * OPUS_GET_LOOKAHEAD
  * OPUS_GET_LSB_DEPTH
  * OPUS_GET_EXPERT_FRAME_DURATION
  * CELT_GET_MODE
@@ -19,17 +25,14 @@ import static com.steinwurf.opus.ReturnValueCheck.check;
  * OPUS_GET_VOICE_RATIO
  * OPUS_SET_APPLICATION
  * OPUS_SET_FORCE_CHANNELS
- * OPUS_SET_DTX
- * OPUS_SET_VBR
  * OPUS_SET_VOICE_RATIO
- * OPUS_SET_VBR_CONSTRAINT
  * OPUS_SET_LSB_DEPTH
  * OPUS_SET_EXPERT_FRAME_DURATION
  * OPUS_SET_FORCE_MODE
  * OPUS_SET_ENERGY_MASK
  * OPUS_SET_LFE
  */
-public class Encoder {
+public class Encoder implements AutoCloseable {
     static
     {
         System.loadLibrary("opus_encoder_jni");
@@ -37,8 +40,32 @@ public class Encoder {
 
     /**
      * A long representing a pointer to the underlying native object.
+     * Volatile so a call made after {@link #close()} has returned sees it has been cleared,
+     * whichever thread closed the encoder.
+     */
+    private volatile long pointer;
+
+    /**
+     * Guards the native part against concurrent use. Package-private for tests.
+     */
+    final UsageGuard guard = new UsageGuard("Encoder");
+
+    /**
+     * The sampling rate the encoder was created with.
+     */
+    private final int samplingRate;
+
+    /**
+     * The number of channels the encoder was created with.
      */
-    private final long pointer;
+    private final int channels;
+
+    /**
+     * Returned by {@link #encodeDiscontinuous(short[], int, int, int, byte[], int, int)} and
+     * {@link #encodeDiscontinuousBuffer(short[], int, int, int, ByteBuffer, int, int)} when
+     * the frame does not need to be transmitted.
+     */
+    public static final int NO_PACKET = 0;
 
     /**
      * Coding modes
@@ -99,10 +126,25 @@ public class Encoder {
             throw new IllegalArgumentException("Invalid number of channels");
         }
 
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+        NativeMemory.reserve(getNativeSize());
         pointer = init(samplingRate, channels, application.value);
+        if (pointer == 0)
+        {
+            NativeMemory.release(getNativeSize());
+            throw new OutOfMemoryError("Failed to create encoder");
+        }
     }
     private static native long init(int samplingRate, int channels, int applicationType);
 
+    private Encoder(long pointer, int samplingRate, int channels)
+    {
+        this.pointer = pointer;
+        this.samplingRate = samplingRate;
+        this.channels = channels;
+    }
+
     /** Encode an Opus frame.
      * @param pcm Input signal (interleaved if 2 channels).
      *            length is frame_size * channels * sizeof(short)
@@ -157,15 +199,121 @@ public class Encoder {
     public int encode(short[] pcm, int pcmOffset, int pcmSize, int frameSize, byte[] output, int outputOffset, int outputSize)
     {
 
-        if (pcm.length < (pcmSize + pcmOffset))
+        if (Bounds.isOutside(pcm.length, pcmOffset, pcmSize))
             throw new IllegalArgumentException("invalid PCM buffer arguments");
-        if (output.length < (outputSize + outputOffset))
+        if (Bounds.isOutside(output.length, outputOffset, outputSize))
             throw new IllegalArgumentException("invalid output buffer arguments");
 
-        return check(nativeEncode(pcm, pcmOffset, pcmSize, frameSize, output, outputOffset, outputSize));
+        ThreadSafety mode = enter();
+        try
+        {
+            return check(nativeEncode(pcm, pcmOffset, pcmSize, frameSize, output, outputOffset, outputSize));
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+
+    /** Encode an Opus frame for discontinuous transmission.
+     * Like {@link #encode(short[], int, int, int, byte[], int, int)}, but reports frames that
+     * need not be transmitted because the encoder is in DTX (see {@link #enableDTX(boolean)}).
+     * The receiver should fill the resulting gaps using
+     * {@link Decoder#decodeGap(short[], int, int, int)}.
+     * @param pcm Input signal (interleaved if 2 channels).
+     *            length is frame_size * channels * sizeof(short)
+     * @param pcmOffset PCM buffer offset.
+     * @param pcmSize PCM buffer size.
+     * @param frameSize Number of samples per channel in the input signal.
+     *                  This must be an Opus frame size for the encoder's sampling rate.
+     * @param output Output payload. A size of 4000 bytes is recommended.
+     * @param outputOffset output buffer offset.
+     * @param outputSize output buffer size.
+     * @return The length of the encoded packet (in bytes), or {@link #NO_PACKET} if the packet
+     *         does not need to be transmitted.
+     */
+    public int encodeDiscontinuous(short[] pcm, int pcmOffset, int pcmSize, int frameSize, byte[] output, int outputOffset, int outputSize)
+    {
+        return discontinuous(encode(pcm, pcmOffset, pcmSize, frameSize, output, outputOffset, outputSize));
+    }
+
+    /** Encode an Opus frame for discontinuous transmission.
+     * See {@link #encodeDiscontinuous(short[], int, int, int, byte[], int, int)}.
+     * @param pcm Input signal (interleaved if 2 channels).
+     * @param frameSize Number of samples per channel in the input signal.
+     * @param output Output payload. A size of 4000 bytes is recommended.
+     * @return The length of the encoded packet (in bytes), or {@link #NO_PACKET} if the packet
+     *         does not need to be transmitted.
+     */
+    public int encodeDiscontinuous(short[] pcm, int frameSize, byte[] output)
+    {
+        return encodeDiscontinuous(pcm, 0, pcm.length, frameSize, output, 0, output.length);
     }
+
     private native int nativeEncode(short[] pcm, int pcmOffset, int pcmSize, int frameSize, byte[] output, int outputOffset, int outputSize);
 
+    /** Encode an Opus frame into a direct buffer.
+     * The packet is written in place, without being copied.
+     * The buffer's position and limit are not used or changed.
+     * @param pcm Input signal (interleaved if 2 channels).
+     *            length is frame_size * channels * sizeof(short)
+     * @param pcmOffset PCM buffer offset.
+     * @param pcmSize PCM buffer size.
+     * @param frameSize Number of samples per channel in the input signal.
+     *                  This must be an Opus frame size for the encoder's sampling rate.
+     * @param output Output payload. This must be a direct buffer.
+     * @param outputOffset output buffer offset.
+     * @param outputSize output buffer size.
+     * @return The length of the encoded packet (in bytes)
+     */
+    public int encodeBuffer(short[] pcm, int pcmOffset, int pcmSize, int frameSize, ByteBuffer output, int outputOffset, int outputSize)
+    {
+        if (Bounds.isOutside(pcm.length, pcmOffset, pcmSize))
+            throw new IllegalArgumentException("invalid PCM buffer arguments");
+        if (!output.isDirect())
+            throw new IllegalArgumentException("output buffer must be direct");
+        if (Bounds.isOutside(output.capacity(), outputOffset, outputSize))
+            throw new IllegalArgumentException("invalid output buffer arguments");
+
+        ThreadSafety mode = enter();
+        try
+        {
+            return check(nativeEncodeBuffer(pcm, pcmOffset, pcmSize, frameSize, output, outputOffset, outputSize));
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeEncodeBuffer(short[] pcm, int pcmOffset, int pcmSize, int frameSize, ByteBuffer output, int outputOffset, int outputSize);
+
+    /** Encode an Opus frame into a direct buffer for discontinuous transmission.
+     * Like {@link #encodeBuffer(short[], int, int, int, ByteBuffer, int, int)}, but reports
+     * frames that need not be transmitted, see
+     * {@link #encodeDiscontinuous(short[], int, int, int, byte[], int, int)}.
+     * @param pcm Input signal (interleaved if 2 channels).
+     *            length is frame_size * channels * sizeof(short)
+     * @param pcmOffset PCM buffer offset.
+     * @param pcmSize PCM buffer size.
+     * @param frameSize Number of samples per channel in the input signal.
+     *                  This must be an Opus frame size for the encoder's sampling rate.
+     * @param output Output payload. This must be a direct buffer.
+     * @param outputOffset output buffer offset.
+     * @param outputSize output buffer size.
+     * @return The length of the encoded packet (in bytes), or {@link #NO_PACKET} if the packet
+     *         does not need to be transmitted.
+     */
+    public int encodeDiscontinuousBuffer(short[] pcm, int pcmOffset, int pcmSize, int frameSize, ByteBuffer output, int outputOffset, int outputSize)
+    {
+        return discontinuous(encodeBuffer(pcm, pcmOffset, pcmSize, frameSize, output, outputOffset, outputSize));
+    }
+
+    private static int discontinuous(int encoded)
+    {
+        // A packet of 2 bytes or less signals DTX and need not be transmitted.
+        return encoded <= 2 ? NO_PACKET : encoded;
+    }
+
     /**
      * Calculate the frame size based on a given frame duration.
      * @param frameTimeUs The frame duration specified un microseconds (μs).
@@ -206,26 +354,93 @@ public class Encoder {
      * This should be called when switching streams in order to prevent the back to back decoding
      * from giving different results from one at a time decoding.
      */
-    public native void resetState();
+    public void resetState()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeResetState();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeResetState();
 
     /**
      * Get the sampling rate the encoder was initialized with.
      * @return Sampling rate of encoder
      */
-    public native int getSampleRate();
+    public int getSampleRate()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetSampleRate();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetSampleRate();
+
+    /**
+     * Get the total number of samples per channel of delay added by the encoder.
+     * Decoders should skip this many samples at the start of the decoded stream (the pre-skip).
+     * @return Lookahead in samples per channel at the encoder's sampling rate
+     */
+    public int getLookahead()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetLookahead();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetLookahead();
 
 
     /**
      * Configures the encoder's use of in-band forward error correction (FEC).
      * @param enable if true, enable in-band FEC otherwise disable it.
      */
-    public native void enableInBandFEC(boolean enable);
+    public void enableInBandFEC(boolean enable)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeEnableInBandFEC(enable);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeEnableInBandFEC(boolean enable);
 
     /**
      * Get encoder's configured use of in-band forward error correction.
      * @return true if in-band FEC is enabled, otherwise false
      */
-    public native boolean hasInBandFEC();
+    public boolean hasInBandFEC()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeHasInBandFEC();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeHasInBandFEC();
 
     /**
      * Configure the encoder's expected packet loss percentage.
@@ -234,13 +449,37 @@ public class Encoder {
      * greater quality under loss.
      * @param percentage Loss percentage in the range 0-100, inclusive (default: 0)
      */
-    public native void setPacketLossPercentage(int percentage);
+    public void setPacketLossPercentage(int percentage)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetPacketLossPercentage(percentage);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeSetPacketLossPercentage(int percentage);
 
     /**
      * Get the encoder's configured packet loss percentage.
      * @return the configured loss percentage in the range 0-100, inclusive (default: 0).
      */
-    public native int getPacketLossPercentage();
+    public int getPacketLossPercentage()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetPacketLossPercentage();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetPacketLossPercentage();
 
     /**
      * Enable or disable prediction.
@@ -249,44 +488,241 @@ public class Encoder {
      * This reduces quality.
      * @param enable if true, enable prediction otherwise disable it.
      */
-    public native void enablePrediction(boolean enable);
+    public void enablePrediction(boolean enable)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeEnablePrediction(enable);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeEnablePrediction(boolean enable);
 
     /**
      * Get the encoder's configured prediction status.
      * @return if true prediction is enabled (default), if false prediction is disabled.
      */
-    public native boolean isPredictionEnabled();
+    public boolean isPredictionEnabled()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeIsPredictionEnabled();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeIsPredictionEnabled();
+
+    /**
+     * Configures the encoder's use of discontinuous transmission (DTX).
+     * This is only applicable to the LPC layer.
+     * @param enable if true, enable DTX otherwise disable it (default).
+     */
+    public void enableDTX(boolean enable)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeEnableDTX(enable);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeEnableDTX(boolean enable);
+
+    /**
+     * Get the encoder's configured use of discontinuous transmission.
+     * @return true if DTX is enabled, otherwise false (default).
+     */
+    public boolean isDTXEnabled()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeIsDTXEnabled();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeIsDTXEnabled();
+
+    /**
+     * Enable or disable variable bitrate (VBR).
+     * When disabled the encoder uses hard constant bitrate (CBR).
+     * @param enable if true, enable VBR (default) otherwise use CBR.
+     */
+    public void enableVBR(boolean enable)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeEnableVBR(enable);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeEnableVBR(boolean enable);
+
+    /**
+     * Get the encoder's configured use of variable bitrate.
+     * @return true if VBR is enabled (default), false if CBR is used.
+     */
+    public boolean isVBREnabled()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeIsVBREnabled();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeIsVBREnabled();
+
+    /**
+     * Enable or disable constrained VBR.
+     * Constrained VBR limits the bitrate variation to the amount that would be buffered
+     * by a CBR channel of the same bitrate, at the cost of some quality.
+     * This setting is irrelevant when the encoder is in CBR mode.
+     * @param enable if true, constrain VBR (default) otherwise use unconstrained VBR.
+     */
+    public void enableVBRConstraint(boolean enable)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeEnableVBRConstraint(enable);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeEnableVBRConstraint(boolean enable);
+
+    /**
+     * Get the encoder's configured use of constrained VBR.
+     * @return true if VBR is constrained (default), otherwise false.
+     */
+    public boolean isVBRConstrained()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeIsVBRConstrained();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeIsVBRConstrained();
 
     /**
      * Gets the DTX state of the encoder.
      * @return  whether the last encoded frame was either a comfort noise update during DTX or
      * not encoded because of DTX.
      */
-    public native boolean inDTX();
+    public boolean inDTX()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeInDTX();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native boolean nativeInDTX();
 
     /**
      * Set the bitrate
      * @param bitrate bitrate in bits per second (b/s)
      */
-    public native void setBitrate(int bitrate);
+    public void setBitrate(int bitrate)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetBitrate(bitrate);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeSetBitrate(int bitrate);
 
     /**
      * Get the bitrate.
      * @return bitrate in bits per second (b/s)
      */
-    public native int getBitrate();
+    public int getBitrate()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetBitrate();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetBitrate();
 
     /**
      * Set the complexity
      * @param complexity value from 1 to 10, where 1 is the lowest complexity and 10 is the highest
      */
-    public native void setComplexity(int complexity);
+    public void setComplexity(int complexity)
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetComplexity(complexity);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native void nativeSetComplexity(int complexity);
 
     /**
      * Get the complexity
      * @return value from 1 to 10, where 1 is the lowest complexity and 10 is the highest
      */
-    public native int getComplexity();
+    public int getComplexity()
+    {
+        ThreadSafety mode = enter();
+        try
+        {
+            return nativeGetComplexity();
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+    }
+    private native int nativeGetComplexity();
 
     /**
      * Set the audio bandwidth
@@ -294,7 +730,15 @@ public class Encoder {
      */
     public void setBandwidth(Bandwidth bandwidth)
     {
-        nativeSetBandwidth(bandwidth.value);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetBandwidth(bandwidth.value);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native void nativeSetBandwidth(int value);
 
@@ -304,7 +748,15 @@ public class Encoder {
      */
     public Bandwidth getBandwidth()
     {
-        return Bandwidth.get(nativeGetBandwidth());
+        ThreadSafety mode = enter();
+        try
+        {
+            return Bandwidth.get(nativeGetBandwidth());
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native int nativeGetBandwidth();
 
@@ -319,7 +771,15 @@ public class Encoder {
      */
     public void setMaxBandwidth(Bandwidth maxBandwidth)
     {
-        nativeSetMaxBandwidth(maxBandwidth.value);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetMaxBandwidth(maxBandwidth.value);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native void nativeSetMaxBandwidth(int value);
 
@@ -329,7 +789,15 @@ public class Encoder {
      */
     public Bandwidth getMaxBandwidth()
     {
-        return Bandwidth.get(nativeGetMaxBandwidth());
+        ThreadSafety mode = enter();
+        try
+        {
+            return Bandwidth.get(nativeGetMaxBandwidth());
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native int nativeGetMaxBandwidth();
 
@@ -375,7 +843,15 @@ public class Encoder {
      */
     public void setSignal(Signal signal)
     {
-        nativeSetSignal(signal.value);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSetSignal(signal.value);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native void nativeSetSignal(int value);
 
@@ -386,17 +862,211 @@ public class Encoder {
      */
     public Signal getSignal()
     {
-        return Signal.get(nativeGetSignal());
+        ThreadSafety mode = enter();
+        try
+        {
+            return Signal.get(nativeGetSignal());
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
     }
     private native int nativeGetSignal();
 
+    /**
+     * Get the size of the native encoder state.
+     * @param channels Number of channels (1 or 2).
+     * @return The size of the state in bytes.
+     */
+    public static native int getStateSize(int channels);
+
+    /**
+     * Get the native memory held by this encoder.
+     * This is accounted for in {@link NativeMemory} while the encoder is live.
+     * @return The size of the native state in bytes.
+     */
+    public int getNativeSize()
+    {
+        return getStateSize(channels);
+    }
+
+    /**
+     * Create a copy of this encoder.
+     * The copy has the same state and configuration as this encoder, and the two evolve
+     * independently afterwards. Copying is much cheaper than creating and configuring a new
+     * encoder.
+     * @return the copy
+     */
+    public Encoder copy()
+    {
+        NativeMemory.reserve(getNativeSize());
+        long copy = 0;
+        try
+        {
+            ThreadSafety mode = enter();
+            try
+            {
+                copy = nativeCopy(pointer, channels);
+            }
+            finally
+            {
+                guard.exit(mode);
+            }
+        }
+        finally
+        {
+            if (copy == 0)
+                NativeMemory.release(getNativeSize());
+        }
+        if (copy == 0)
+            throw new OutOfMemoryError("Memory allocation has failed");
+
+        Encoder encoderCopy = new Encoder(copy, samplingRate, channels);
+        encoderCopy.setThreadSafety(getThreadSafety());
+        return encoderCopy;
+    }
+    private static native long nativeCopy(long pointer, int channels);
+
+    /**
+     * Get the size of a snapshot taken by {@link #snapshot(ByteBuffer)}.
+     * This is the native state size plus a small header identifying the encoder.
+     * @param channels Number of channels (1 or 2).
+     * @return The size of the snapshot in bytes.
+     */
+    public static int getSnapshotSize(int channels)
+    {
+        return SnapshotHeader.SIZE + getStateSize(channels);
+    }
+
+    /**
+     * Store the state and configuration of this encoder.
+     * {@link #getSnapshotSize(int)} bytes are written at the buffer's position, which is
+     * advanced accordingly.
+     * @param state A direct buffer to store the state in.
+     */
+    public void snapshot(ByteBuffer state)
+    {
+        int size = checkStateBuffer(state);
+        SnapshotHeader.write(state, SnapshotHeader.ENCODER, samplingRate, channels, size);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeSnapshot(pointer, channels, state, state.position() + SnapshotHeader.SIZE);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        state.position(state.position() + SnapshotHeader.SIZE + size);
+    }
+    private static native void nativeSnapshot(long pointer, int channels, ByteBuffer state, int offset);
+
+    /**
+     * Restore the state and configuration of this encoder from a snapshot.
+     * {@link #getSnapshotSize(int)} bytes are read from the buffer's position, which is
+     * advanced accordingly.
+     * The snapshot <b>must</b> have been taken by {@link #snapshot(ByteBuffer)} in this process.
+     * @param state A direct buffer holding the snapshot.
+     * @throws IllegalArgumentException if the snapshot was taken from a encoder with a different
+     *         sampling rate or number of channels. The encoder is left unchanged in that case.
+     */
+    public void restore(ByteBuffer state)
+    {
+        int size = checkStateBuffer(state);
+        SnapshotHeader.check(state, SnapshotHeader.ENCODER, samplingRate, channels, size);
+        ThreadSafety mode = enter();
+        try
+        {
+            nativeRestore(pointer, channels, state, state.position() + SnapshotHeader.SIZE);
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        state.position(state.position() + SnapshotHeader.SIZE + size);
+    }
+    private static native void nativeRestore(long pointer, int channels, ByteBuffer state, int offset);
+
+    private int checkStateBuffer(ByteBuffer state)
+    {
+        if (!state.isDirect())
+            throw new IllegalArgumentException("state buffer must be direct");
+        int size = getStateSize(channels);
+        if (state.remaining() < SnapshotHeader.SIZE + size)
+            throw new IllegalArgumentException("state buffer too small");
+        return size;
+    }
+
+    /**
+     * Set how this encoder guards against use from multiple threads.
+     * This must be set before the encoder is shared between threads.
+     * @param mode the thread safety mode (default: {@link ThreadSafety#UNCHECKED})
+     */
+    public void setThreadSafety(ThreadSafety mode)
+    {
+        guard.setMode(mode);
+    }
+
+    /**
+     * Get how this encoder guards against use from multiple threads.
+     * @return the thread safety mode
+     */
+    public ThreadSafety getThreadSafety()
+    {
+        return guard.getMode();
+    }
+
+    /**
+     * Start a call into the native part.
+     * @return the mode to pass to {@link UsageGuard#exit(ThreadSafety)}
+     */
+    private ThreadSafety enter()
+    {
+        ThreadSafety mode = guard.enter();
+        if (pointer == 0)
+        {
+            guard.exit(mode);
+            throw new IllegalStateException("Encoder has been closed");
+        }
+        return mode;
+    }
+
+    /**
+     * Releases the underlying native part, without waiting for the object to be finalized.
+     * The encoder must not be used after it has been closed. Closing it again has no effect.
+     */
+    @Override
+    public void close()
+    {
+        long released;
+        ThreadSafety mode = guard.enter();
+        try
+        {
+            synchronized (this)
+            {
+                released = pointer;
+                pointer = 0;
+            }
+        }
+        finally
+        {
+            guard.exit(mode);
+        }
+        if (released != 0)
+        {
+            finalize(released);
+            NativeMemory.release(getNativeSize());
+        }
+    }
+
     /**
      * Finalizes the object and it's underlying native part.
      */
     @Override
     protected void finalize() throws Throwable
     {
-        finalize(pointer);
+        close();
         super.finalize();
     }
 
@@ -0,0 +1,62 @@
+package com.steinwurf.opus;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A pipeline stage encoding PCM frames into Opus packets.
+ *
+ * Incoming frames are released back to their pool once encoded, and the emitted packets are
+ * taken from a pool owned by the stage. Subscribers must {@link OpusPacket#release()} each
+ * packet when done with it.
+ *
+ * The encoder must not be used by anything else while it is owned by the stage.
+ */
+public class EncoderStage extends CodecStage<PcmFrame, OpusPacket>
+{
+    private final Encoder encoder;
+    private final OpusPacket.Pool packets;
+
+    /**
+     * Create encoder stage.
+     * @param encoder The encoder to use.
+     * @param prefetch Number of frames requested from upstream ahead of downstream demand.
+     * @param policy What to do with frames arriving while the prefetch buffer is full.
+     *               {@link OverflowPolicy#CONCEAL} is not supported for encoding.
+     * @param executor Executor running the encoding, for instance a fixed thread pool.
+     */
+    public EncoderStage(Encoder encoder, int prefetch, OverflowPolicy policy, Executor executor)
+    {
+        super(prefetch, policy, executor);
+        if (encoder == null)
+            throw new NullPointerException("encoder");
+        if (policy == OverflowPolicy.CONCEAL)
+            throw new IllegalArgumentException("Concealment is not supported for encoding");
+
+        this.encoder = encoder;
+        this.packets = new OpusPacket.Pool(prefetch);
+    }
+
+    @Override
+    OpusPacket process(PcmFrame frame)
+    {
+        OpusPacket packet = packets.acquire();
+        try
+        {
+            packet.length = encoder.encode(
+                frame.pcm, 0, frame.pcm.length, frame.frameSize,
+                packet.data, 0, packet.data.length);
+        }
+        catch (RuntimeException e)
+        {
+            packet.release();
+            throw e;
+        }
+        return packet;
+    }
+
+    @Override
+    void release(PcmFrame frame)
+    {
+        frame.release();
+    }
+}
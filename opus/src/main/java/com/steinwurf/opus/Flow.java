@@ -0,0 +1,94 @@
+package com.steinwurf.opus;
+
+/**
+ * Interrelated interfaces for establishing flow-controlled components in which
+ * {@link Publisher}s produce items consumed by one or more {@link Subscriber}s, each managed
+ * by a {@link Subscription}.
+ *
+ * These mirror the interfaces of {@code java.util.concurrent.Flow} (and the Reactive Streams
+ * specification) one to one. They are declared here because {@code java.util.concurrent.Flow}
+ * is not available on the Android API levels this library supports.
+ */
+public final class Flow
+{
+    private Flow()
+    {
+    }
+
+    /**
+     * A producer of items received by Subscribers.
+     * @param <T> the published item type
+     */
+    public interface Publisher<T>
+    {
+        /**
+         * Adds the given Subscriber if possible.
+         * If the subscription cannot be established, {@link Subscriber#onError(Throwable)} is
+         * invoked.
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of messages.
+     * The methods in this interface are invoked in strict sequential order for each
+     * Subscription.
+     * @param <T> the subscribed item type
+     */
+    public interface Subscriber<T>
+    {
+        /**
+         * Invoked prior to invoking any other Subscriber methods for the given Subscription.
+         * @param subscription a new subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked with a Subscription's next item.
+         * @param item the item
+         */
+        void onNext(T item);
+
+        /**
+         * Invoked upon an unrecoverable error encountered by a Publisher or Subscription,
+         * after which no other Subscriber methods are invoked by the Subscription.
+         * @param throwable the exception
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked when it is known that no additional Subscriber method invocations will
+         * occur for a Subscription that is not already terminated by error.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Message control linking a {@link Publisher} and {@link Subscriber}.
+     */
+    public interface Subscription
+    {
+        /**
+         * Adds the given number of items to the current unfulfilled demand for this
+         * subscription.
+         * @param n the increment of demand; a value of {@code Long.MAX_VALUE} may be
+         *          considered as effectively unbounded
+         */
+        void request(long n);
+
+        /**
+         * Causes the Subscriber to (eventually) stop receiving messages.
+         */
+        void cancel();
+    }
+
+    /**
+     * A component that acts as both a Subscriber and Publisher.
+     * @param <T> the subscribed item type
+     * @param <R> the published item type
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R>
+    {
+    }
+}
@@ -0,0 +1,232 @@
+package com.steinwurf.opus;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A lock-free single-producer/single-consumer ring of preallocated PCM frame slots.
+ *
+ * This is meant for handing frames from a capture thread, which must never block, to the
+ * thread encoding them, without copying or allocating per frame.
+ * The producer {@link #claim()}s a slot, fills it and {@link #publish()}es it.
+ * The consumer {@link #peek()}s the oldest published slot, encodes from it and
+ * {@link #consume()}s it, or does both in one go using {@link #consume(Encoder, byte[], int, int)}.
+ *
+ * Exactly one thread may act as producer and exactly one thread may act as consumer.
+ */
+public class FrameRing
+{
+    /**
+     * Returned by {@link #consume(Encoder, byte[], int, int)} if the ring is empty.
+     */
+    public static final int EMPTY = -1;
+
+    /**
+     * Padding ahead of the fields of a {@link Sequence}.
+     */
+    @SuppressWarnings("unused")
+    static class SequencePad
+    {
+        long p00, p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    /**
+     * The fields of a {@link Sequence}, which are all written by the same side.
+     */
+    static class SequenceFields extends SequencePad
+    {
+        /**
+         * The index.
+         */
+        volatile long value;
+
+        /**
+         * The cached view of the other side's index.
+         */
+        long cache;
+
+        /**
+         * Whether a slot has been claimed but not yet published. Only used by the producer.
+         */
+        boolean claimed;
+    }
+
+    /**
+     * The index of one side of the ring, along with the state only that side uses, padded on
+     * both sides to occupy cache lines of its own so the producer and consumer do not suffer
+     * from false sharing.
+     * Fields of a super class are laid out ahead of those of its subclasses, which keeps the
+     * padding in place.
+     */
+    @SuppressWarnings("unused")
+    static final class Sequence extends SequenceFields
+    {
+        long p10, p11, p12, p13, p14, p15, p16, p17;
+    }
+
+    private static final AtomicLongFieldUpdater<SequenceFields> VALUE =
+        AtomicLongFieldUpdater.newUpdater(SequenceFields.class, "value");
+
+    private final short[][] slots;
+    private final int mask;
+    private final int frameSize;
+
+    /**
+     * Index of the next slot to consume, and the consumer's cached view of {@link #tail}.
+     */
+    private final Sequence head = new Sequence();
+
+    /**
+     * Index of the next slot to publish, and the producer's cached view of {@link #head}.
+     */
+    private final Sequence tail = new Sequence();
+
+    /**
+     * Create frame ring.
+     * @param capacity Number of slots. This must be a power of two.
+     * @param frameSize Number of samples per channel in each frame.
+     *                  See {@link Encoder#calculateFrameSize(int)}.
+     * @param channels Number of channels (1 or 2).
+     */
+    public FrameRing(int capacity, int frameSize, int channels)
+    {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException(String.format("Invalid capacity %d", capacity));
+        if (frameSize < 1)
+            throw new IllegalArgumentException(String.format("Invalid frame size %d", frameSize));
+        if (channels != 1 && channels != 2)
+            throw new IllegalArgumentException(String.format("Invalid number of channels %d", channels));
+
+        this.slots = new short[capacity][frameSize * channels];
+        this.mask = capacity - 1;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Create frame ring with slots sized for the given encoder and frame duration.
+     * @param capacity Number of slots. This must be a power of two.
+     * @param encoder The encoder the frames are for.
+     * @param frameTimeUs The frame duration specified in microseconds.
+     *                    See {@link Encoder#calculateFrameSize(int)}.
+     * @param channels Number of channels (1 or 2) the encoder was created with.
+     */
+    public FrameRing(int capacity, Encoder encoder, int frameTimeUs, int channels)
+    {
+        this(capacity, encoder.calculateFrameSize(frameTimeUs), channels);
+    }
+
+    /**
+     * Get the number of slots.
+     * @return the number of slots
+     */
+    public int getCapacity()
+    {
+        return slots.length;
+    }
+
+    /**
+     * Get the number of samples per channel in each frame.
+     * @return the frame size
+     */
+    public int getFrameSize()
+    {
+        return frameSize;
+    }
+
+    /**
+     * Get the number of published but not yet consumed frames.
+     * The value is only a snapshot when called concurrently with the producer or consumer.
+     * @return the number of frames in the ring
+     */
+    public int size()
+    {
+        // Read the head first, as the tail only moves ahead of it
+        long h = head.value;
+        return (int)(tail.value - h);
+    }
+
+    /**
+     * Claim the next free slot. Producer only.
+     * Calling this again before {@link #publish()} returns the same slot.
+     * @return the slot to fill (interleaved if 2 channels), or null if the ring is full
+     */
+    public short[] claim()
+    {
+        long t = tail.value;
+        if (t - tail.cache == slots.length)
+        {
+            tail.cache = head.value;
+            if (t - tail.cache == slots.length)
+                return null;
+        }
+        tail.claimed = true;
+        return slots[(int)t & mask];
+    }
+
+    /**
+     * Publish the claimed slot, making it available to the consumer. Producer only.
+     */
+    public void publish()
+    {
+        if (!tail.claimed)
+            throw new IllegalStateException("No slot has been claimed");
+        tail.claimed = false;
+        VALUE.lazySet(tail, tail.value + 1);
+    }
+
+    /**
+     * Get the oldest published slot without consuming it. Consumer only.
+     * @return the slot (interleaved if 2 channels), or null if the ring is empty
+     */
+    public short[] peek()
+    {
+        long h = head.value;
+        if (h == head.cache)
+        {
+            head.cache = tail.value;
+            if (h == head.cache)
+                return null;
+        }
+        return slots[(int)h & mask];
+    }
+
+    /**
+     * Consume the oldest published slot, handing it back to the producer. Consumer only.
+     * The slot returned by {@link #peek()} must not be used after this call.
+     */
+    public void consume()
+    {
+        long h = head.value;
+        if (h == head.cache)
+        {
+            head.cache = tail.value;
+            if (h == head.cache)
+                throw new IllegalStateException("No slot has been published");
+        }
+        VALUE.lazySet(head, h + 1);
+    }
+
+    /**
+     * Encode the oldest published frame directly from its slot and consume it. Consumer only.
+     * @param encoder The encoder to use.
+     * @param output Output payload. See {@link Encoder#encode(short[], int, byte[])}.
+     * @param outputOffset output buffer offset.
+     * @param outputSize output buffer size.
+     * @return The length of the encoded packet (in bytes), or {@link #EMPTY} if the ring is
+     *         empty.
+     */
+    public int consume(Encoder encoder, byte[] output, int outputOffset, int outputSize)
+    {
+        short[] pcm = peek();
+        if (pcm == null)
+            return EMPTY;
+
+        try
+        {
+            return encoder.encode(pcm, 0, pcm.length, frameSize, output, outputOffset, outputSize);
+        }
+        finally
+        {
+            consume();
+        }
+    }
+}
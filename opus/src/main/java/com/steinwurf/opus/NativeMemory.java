@@ -0,0 +1,153 @@
+package com.steinwurf.opus;
+
+/**
+ * Accounting of the native memory held by {@link Encoder} and {@link Decoder} instances.
+ *
+ * The libopus state of each instance lives outside the Java heap, so it is tracked here
+ * instead. Memory is accounted for when an instance is created or copied, and released when
+ * it is closed or finalized.
+ *
+ * An optional process-wide budget limits the native memory of all live instances.
+ * Creating an instance that would exceed the budget either fails immediately with an
+ * {@link IllegalStateException}, or blocks until other instances release enough memory or a
+ * timeout expires.
+ */
+public final class NativeMemory
+{
+    private static final Object lock = new Object();
+
+    private static long liveInstances;
+    private static long liveBytes;
+
+    private static long budget;
+    private static long timeoutMs;
+
+    private NativeMemory()
+    {
+    }
+
+    /**
+     * Get the number of live encoder and decoder instances.
+     * @return the number of live instances
+     */
+    public static long getLiveInstances()
+    {
+        synchronized (lock)
+        {
+            return liveInstances;
+        }
+    }
+
+    /**
+     * Get the native memory held by live encoder and decoder instances.
+     * @return the native memory in bytes
+     */
+    public static long getLiveBytes()
+    {
+        synchronized (lock)
+        {
+            return liveBytes;
+        }
+    }
+
+    /**
+     * Set a budget under which creating an instance fails immediately if the budget would
+     * be exceeded.
+     * Instances that are already live are not affected.
+     * @param bytes Maximum native memory of all live instances in bytes, or 0 for no budget.
+     */
+    public static void setBudget(long bytes)
+    {
+        setBudget(bytes, 0);
+    }
+
+    /**
+     * Set a budget under which creating an instance blocks while the budget would be exceeded.
+     * Instances that are already live are not affected.
+     * @param bytes Maximum native memory of all live instances in bytes, or 0 for no budget.
+     * @param timeoutMs Maximum time to block in milliseconds before failing,
+     *                  or 0 to fail immediately.
+     */
+    public static void setBudget(long bytes, long timeoutMs)
+    {
+        if (bytes < 0)
+            throw new IllegalArgumentException(String.format("Invalid budget %d", bytes));
+        if (timeoutMs < 0)
+            throw new IllegalArgumentException(String.format("Invalid timeout %d", timeoutMs));
+
+        synchronized (lock)
+        {
+            NativeMemory.budget = bytes;
+            NativeMemory.timeoutMs = timeoutMs;
+            // Waiting instances may now fit within the budget
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Get the budget.
+     * @return Maximum native memory of all live instances in bytes, or 0 for no budget.
+     */
+    public static long getBudget()
+    {
+        synchronized (lock)
+        {
+            return budget;
+        }
+    }
+
+    /**
+     * Account for a new instance.
+     * @param bytes native memory of the instance in bytes
+     */
+    static void reserve(long bytes)
+    {
+        synchronized (lock)
+        {
+            if (budget != 0 && liveBytes + bytes > budget)
+            {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                long remaining = timeoutMs;
+                boolean interrupted = false;
+                while (budget != 0 && liveBytes + bytes > budget && remaining > 0)
+                {
+                    try
+                    {
+                        lock.wait(remaining);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+
+                if (budget != 0 && liveBytes + bytes > budget)
+                {
+                    throw new IllegalStateException(String.format(
+                        "Native memory budget exceeded (%d of %d bytes live, %d requested)",
+                        liveBytes, budget, bytes));
+                }
+            }
+            liveInstances++;
+            liveBytes += bytes;
+        }
+    }
+
+    /**
+     * Account for a released instance.
+     * @param bytes native memory of the instance in bytes
+     */
+    static void release(long bytes)
+    {
+        synchronized (lock)
+        {
+            liveInstances--;
+            liveBytes -= bytes;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.steinwurf.opus;
+
+/**
+ * A recyclable encoded Opus packet.
+ * Packets are obtained from a {@link Pool} and handed back to it with {@link #release()} once
+ * the holder is done with them, so that no buffers are allocated per packet.
+ */
+public final class OpusPacket
+{
+    /**
+     * The recommended maximum size of an encoded packet (in bytes).
+     */
+    public static final int MAX_SIZE = 4000;
+
+    /**
+     * The payload. Only the first {@link #length} bytes are valid.
+     */
+    public final byte[] data;
+
+    /**
+     * The length of the payload (in bytes).
+     */
+    public int length;
+
+    private final BufferPool<OpusPacket> pool;
+
+    private OpusPacket(BufferPool<OpusPacket> pool, int size)
+    {
+        this.pool = pool;
+        this.data = new byte[size];
+    }
+
+    /**
+     * Return the packet to the pool it was acquired from.
+     * The packet must not be used after it has been released.
+     */
+    public void release()
+    {
+        pool.recycle(this);
+    }
+
+    /**
+     * A pool of equally sized packet buffers.
+     */
+    public static final class Pool
+    {
+        private final BufferPool<OpusPacket> pool;
+
+        /**
+         * Create packet pool with buffers of {@link #MAX_SIZE} bytes.
+         * @param capacity Maximum number of released packets kept for reuse.
+         */
+        public Pool(int capacity)
+        {
+            this(capacity, MAX_SIZE);
+        }
+
+        /**
+         * Create packet pool.
+         * @param capacity Maximum number of released packets kept for reuse.
+         * @param size Size of each packet buffer (in bytes).
+         */
+        public Pool(int capacity, final int size)
+        {
+            if (size < 1)
+                throw new IllegalArgumentException(String.format("Invalid packet size %d", size));
+
+            this.pool = new BufferPool<OpusPacket>(capacity) {
+                @Override
+                OpusPacket create()
+                {
+                    return new OpusPacket(this, size);
+                }
+            };
+        }
+
+        /**
+         * Get a packet from the pool.
+         * The packet's {@link OpusPacket#length} is reset to 0.
+         * @return a packet
+         */
+        public OpusPacket acquire()
+        {
+            OpusPacket packet = pool.acquire();
+            packet.length = 0;
+            return packet;
+        }
+    }
+}
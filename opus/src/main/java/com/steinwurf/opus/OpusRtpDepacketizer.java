@@ -0,0 +1,179 @@
+package com.steinwurf.opus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Unpacks RTP packets carrying Opus (RFC 7587) and decodes their payload.
+ *
+ * The payload is decoded in place from the caller's direct buffer, so depacketizing involves
+ * no copies and no allocations. The header fields of the most recent packet are available
+ * through the getters.
+ */
+public class OpusRtpDepacketizer
+{
+    private static final int MIN_HEADER_SIZE = 12;
+
+    private final Decoder decoder;
+
+    private int payloadType;
+    private int sequenceNumber;
+    private int timestamp;
+    private int ssrc;
+    private boolean marker;
+    private int payloadOffset;
+    private int payloadSize;
+
+    /**
+     * Create depacketizer.
+     * @param decoder The decoder to use.
+     */
+    public OpusRtpDepacketizer(Decoder decoder)
+    {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Decode the payload of an RTP packet.
+     * The buffer's position and limit are not used or changed.
+     * @param packet Input packet. This must be a direct buffer.
+     * @param packetOffset Input packet offset.
+     * @param packetSize Input packet size.
+     * @param pcm Output signal (interleaved if 2 channels).
+     * @param pcmOffset Output signal offset.
+     * @param pcmSize Output signal size.
+     * @param frameSize Number of samples per channel of available space in output.
+     *                  See {@link Decoder#decode(byte[], int, int, short[], int, int, int, boolean)}.
+     * @return Number of decoded samples
+     * @throws IllegalArgumentException if the packet has no payload, e.g. if it only carries
+     *         padding. Such a packet holds no audio, and it is up to the caller to treat it as
+     *         a gap, see {@link Decoder#decodeGap(short[], int, int, int)}.
+     */
+    public int depacketize(ByteBuffer packet, int packetOffset, int packetSize, short[] pcm, int pcmOffset, int pcmSize, int frameSize)
+    {
+        parse(packet, packetOffset, packetSize);
+        // The decoder would conceal a whole frame for an empty payload
+        if (payloadSize == 0)
+            throw new IllegalArgumentException("RTP packet has no payload");
+        return decoder.decodeBuffer(packet, payloadOffset, payloadSize, pcm, pcmOffset, pcmSize, frameSize, false);
+    }
+
+    /**
+     * Parse the header of an RTP packet without decoding it.
+     * @param packet Input packet.
+     * @param packetOffset Input packet offset.
+     * @param packetSize Input packet size.
+     */
+    public void parse(ByteBuffer packet, int packetOffset, int packetSize)
+    {
+        if (Bounds.isOutside(packet.capacity(), packetOffset, packetSize))
+            throw new IllegalArgumentException("invalid packet buffer arguments");
+        if (packetSize < MIN_HEADER_SIZE)
+            throw new IllegalArgumentException("packet too small for RTP header");
+
+        int first = packet.get(packetOffset) & 0xFF;
+        if ((first >>> 6) != 2)
+            throw new IllegalArgumentException("unsupported RTP version");
+
+        int second = packet.get(packetOffset + 1) & 0xFF;
+        marker = (second & 0x80) != 0;
+        payloadType = second & 0x7F;
+        sequenceNumber = getShort(packet, packetOffset + 2);
+        timestamp = getInt(packet, packetOffset + 4);
+        ssrc = getInt(packet, packetOffset + 8);
+
+        int headerSize = MIN_HEADER_SIZE + 4 * (first & 0x0F);
+        if ((first & 0x10) != 0)
+        {
+            // Header extension: 16 bit profile, 16 bit length in 32 bit words
+            if (packetSize < headerSize + 4)
+                throw new IllegalArgumentException("packet too small for RTP header extension");
+            headerSize += 4 + 4 * getShort(packet, packetOffset + headerSize + 2);
+        }
+
+        int end = packetSize;
+        if ((first & 0x20) != 0)
+            end -= packet.get(packetOffset + packetSize - 1) & 0xFF;
+
+        if (end < headerSize)
+            throw new IllegalArgumentException("invalid RTP header");
+
+        payloadOffset = packetOffset + headerSize;
+        payloadSize = end - headerSize;
+    }
+
+    /**
+     * Get the payload type of the last packet.
+     * @return the payload type
+     */
+    public int getPayloadType()
+    {
+        return payloadType;
+    }
+
+    /**
+     * Get the sequence number of the last packet.
+     * @return the sequence number
+     */
+    public int getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * Get the timestamp of the last packet.
+     * @return the timestamp, in units of the {@link OpusRtpPacketizer#CLOCK_RATE}
+     */
+    public int getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Get the synchronization source identifier of the last packet.
+     * @return the SSRC
+     */
+    public int getSsrc()
+    {
+        return ssrc;
+    }
+
+    /**
+     * Whether the marker bit of the last packet was set.
+     * @return true if the last packet starts a talkspurt
+     */
+    public boolean isMarker()
+    {
+        return marker;
+    }
+
+    /**
+     * Get the offset of the last packet's payload in its buffer.
+     * @return the payload offset
+     */
+    public int getPayloadOffset()
+    {
+        return payloadOffset;
+    }
+
+    /**
+     * Get the size of the last packet's payload.
+     * @return the payload size (in bytes)
+     */
+    public int getPayloadSize()
+    {
+        return payloadSize;
+    }
+
+    private static int getShort(ByteBuffer buffer, int index)
+    {
+        return ((buffer.get(index) & 0xFF) << 8) | (buffer.get(index + 1) & 0xFF);
+    }
+
+    private static int getInt(ByteBuffer buffer, int index)
+    {
+        return ((buffer.get(index) & 0xFF) << 24)
+            | ((buffer.get(index + 1) & 0xFF) << 16)
+            | ((buffer.get(index + 2) & 0xFF) << 8)
+            | (buffer.get(index + 3) & 0xFF);
+    }
+}
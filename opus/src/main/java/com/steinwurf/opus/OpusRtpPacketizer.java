@@ -0,0 +1,168 @@
+package com.steinwurf.opus;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Packs Opus frames into RTP packets as specified by RFC 7587.
+ *
+ * Each frame is encoded straight into the caller's direct buffer, right after the room
+ * reserved for the RTP header, so packetizing involves no copies and no allocations.
+ * The RTP timestamp always advances at the 48 kHz clock rate mandated for Opus, regardless of
+ * the encoder's sampling rate.
+ *
+ * Frames that the encoder marks as not needing transmission during discontinuous transmission
+ * (see {@link Encoder#enableDTX(boolean)}) produce no packet. The first packet after such a
+ * gap has the RTP marker bit set, as the first packet of a talkspurt.
+ */
+public class OpusRtpPacketizer
+{
+    /**
+     * Size of the RTP header written by the packetizer (in bytes).
+     */
+    public static final int HEADER_SIZE = 12;
+
+    /**
+     * The RTP clock rate of Opus (Hz).
+     */
+    public static final int CLOCK_RATE = 48000;
+
+    private final Encoder encoder;
+    private final int payloadType;
+    private final int ssrc;
+    private final int timestampScale;
+
+    private int sequenceNumber;
+    private int timestamp;
+    private boolean marker = true;
+
+    /**
+     * Create packetizer with random initial sequence number and timestamp.
+     * @param encoder The encoder to use.
+     * @param payloadType The dynamic RTP payload type (96-127) negotiated for Opus.
+     * @param ssrc The synchronization source identifier.
+     */
+    public OpusRtpPacketizer(Encoder encoder, int payloadType, int ssrc)
+    {
+        this(encoder, payloadType, ssrc, new Random());
+    }
+
+    private OpusRtpPacketizer(Encoder encoder, int payloadType, int ssrc, Random random)
+    {
+        this(encoder, payloadType, ssrc, random.nextInt(0x10000), random.nextInt());
+    }
+
+    /**
+     * Create packetizer.
+     * @param encoder The encoder to use.
+     * @param payloadType The dynamic RTP payload type (96-127) negotiated for Opus.
+     * @param ssrc The synchronization source identifier.
+     * @param sequenceNumber The sequence number of the first packet.
+     * @param timestamp The timestamp of the first packet.
+     */
+    public OpusRtpPacketizer(Encoder encoder, int payloadType, int ssrc, int sequenceNumber, int timestamp)
+    {
+        if (payloadType < 0 || payloadType > 127)
+            throw new IllegalArgumentException(String.format("Invalid payload type %d", payloadType));
+
+        this.encoder = encoder;
+        this.payloadType = payloadType;
+        this.ssrc = ssrc;
+        this.timestampScale = CLOCK_RATE / encoder.getSampleRate();
+        this.sequenceNumber = sequenceNumber & 0xFFFF;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Encode a frame into an RTP packet.
+     * The buffer's position and limit are not used or changed.
+     * @param pcm Input signal (interleaved if 2 channels).
+     * @param pcmOffset PCM buffer offset.
+     * @param pcmSize PCM buffer size.
+     * @param frameSize Number of samples per channel in the input signal.
+     *                  This must be an Opus frame size for the encoder's sampling rate.
+     * @param packet Output packet. This must be a direct buffer.
+     * @param packetOffset Output packet offset.
+     * @param packetSize Output packet size, including the {@link #HEADER_SIZE} bytes of header.
+     * @return The length of the RTP packet (in bytes), or {@link Encoder#NO_PACKET} if the
+     *         frame does not need to be transmitted.
+     */
+    public int packetize(short[] pcm, int pcmOffset, int pcmSize, int frameSize, ByteBuffer packet, int packetOffset, int packetSize)
+    {
+        if (packetSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("packet buffer too small");
+
+        int payload = encoder.encodeDiscontinuousBuffer(
+            pcm, pcmOffset, pcmSize, frameSize,
+            packet, packetOffset + HEADER_SIZE, packetSize - HEADER_SIZE);
+
+        int packetTimestamp = timestamp;
+        timestamp += frameSize * timestampScale;
+
+        if (payload == Encoder.NO_PACKET)
+        {
+            marker = true;
+            return Encoder.NO_PACKET;
+        }
+
+        packet.put(packetOffset, (byte)0x80);
+        packet.put(packetOffset + 1, (byte)((marker ? 0x80 : 0x00) | payloadType));
+        putShort(packet, packetOffset + 2, sequenceNumber);
+        putInt(packet, packetOffset + 4, packetTimestamp);
+        putInt(packet, packetOffset + 8, ssrc);
+
+        sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        marker = false;
+        return HEADER_SIZE + payload;
+    }
+
+    /**
+     * Get the sequence number of the next packet.
+     * @return the sequence number
+     */
+    public int getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * Get the timestamp of the next frame.
+     * @return the timestamp, in units of the {@link #CLOCK_RATE}
+     */
+    public int getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Get the synchronization source identifier.
+     * @return the SSRC
+     */
+    public int getSsrc()
+    {
+        return ssrc;
+    }
+
+    /**
+     * Get the RTP payload type.
+     * @return the payload type
+     */
+    public int getPayloadType()
+    {
+        return payloadType;
+    }
+
+    private static void putShort(ByteBuffer buffer, int index, int value)
+    {
+        buffer.put(index, (byte)(value >>> 8));
+        buffer.put(index + 1, (byte)value);
+    }
+
+    private static void putInt(ByteBuffer buffer, int index, int value)
+    {
+        buffer.put(index, (byte)(value >>> 24));
+        buffer.put(index + 1, (byte)(value >>> 16));
+        buffer.put(index + 2, (byte)(value >>> 8));
+        buffer.put(index + 3, (byte)value);
+    }
+}
@@ -0,0 +1,24 @@
+package com.steinwurf.opus;
+
+/**
+ * What a pipeline stage does with an item that arrives while its prefetch buffer is full.
+ * This only happens when the upstream publisher does not honor the requested demand, for
+ * instance a capture source that cannot be paused.
+ */
+public enum OverflowPolicy
+{
+    /**
+     * Discard the oldest buffered item to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the new item.
+     */
+    DROP_LATEST,
+    /**
+     * Discard the oldest buffered item and let the decoder conceal the resulting gap using
+     * packet loss concealment.
+     * Only valid for decoder stages.
+     */
+    CONCEAL
+}
@@ -0,0 +1,83 @@
+package com.steinwurf.opus;
+
+/**
+ * A recyclable frame of PCM audio.
+ * Frames are obtained from a {@link Pool} and handed back to it with {@link #release()} once
+ * the holder is done with them, so that no buffers are allocated per frame.
+ */
+public final class PcmFrame
+{
+    /**
+     * The signal (interleaved if 2 channels).
+     * Length is the pool's frame size * channels.
+     */
+    public final short[] pcm;
+
+    /**
+     * Number of valid samples per channel in {@link #pcm}.
+     */
+    public int frameSize;
+
+    private final BufferPool<PcmFrame> pool;
+
+    private PcmFrame(BufferPool<PcmFrame> pool, int frameSize, int channels)
+    {
+        this.pool = pool;
+        this.pcm = new short[frameSize * channels];
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * Return the frame to the pool it was acquired from.
+     * The frame must not be used after it has been released.
+     */
+    public void release()
+    {
+        pool.recycle(this);
+    }
+
+    /**
+     * A pool of equally sized PCM frames.
+     */
+    public static final class Pool
+    {
+        private final BufferPool<PcmFrame> pool;
+        private final int frameSize;
+
+        /**
+         * Create frame pool.
+         * @param capacity Maximum number of released frames kept for reuse.
+         * @param frameSize Number of samples per channel in each frame.
+         *                  See {@link Encoder#calculateFrameSize(int)}.
+         * @param channels Number of channels (1 or 2).
+         */
+        public Pool(int capacity, final int frameSize, final int channels)
+        {
+            if (frameSize < 1)
+                throw new IllegalArgumentException(String.format("Invalid frame size %d", frameSize));
+            if (channels != 1 && channels != 2)
+                throw new IllegalArgumentException(String.format("Invalid number of channels %d", channels));
+
+            this.frameSize = frameSize;
+            this.pool = new BufferPool<PcmFrame>(capacity) {
+                @Override
+                PcmFrame create()
+                {
+                    return new PcmFrame(this, frameSize, channels);
+                }
+            };
+        }
+
+        /**
+         * Get a frame from the pool.
+         * The frame's {@link PcmFrame#frameSize} is reset to the full frame size of the pool.
+         * @return a frame
+         */
+        public PcmFrame acquire()
+        {
+            PcmFrame frame = pool.acquire();
+            frame.frameSize = frameSize;
+            return frame;
+        }
+    }
+}
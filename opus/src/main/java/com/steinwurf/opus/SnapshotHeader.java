@@ -0,0 +1,56 @@
+package com.steinwurf.opus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The header {@link Encoder#snapshot(ByteBuffer)} and {@link Decoder#snapshot(ByteBuffer)}
+ * write ahead of the native state.
+ * It is checked before a snapshot is restored, so a snapshot taken from a codec with a
+ * different kind, sampling rate or number of channels is rejected before any state is copied.
+ */
+final class SnapshotHeader
+{
+    /**
+     * The size of the header in bytes.
+     */
+    static final int SIZE = 4 * 4;
+
+    /**
+     * Tags telling encoder and decoder snapshots apart.
+     */
+    static final int ENCODER = 0x4f707345;
+    static final int DECODER = 0x4f707344;
+
+    private SnapshotHeader()
+    {
+    }
+
+    /**
+     * Write the header at the buffer's position. The position is not changed.
+     */
+    static void write(ByteBuffer state, int tag, int samplingRate, int channels, int stateSize)
+    {
+        int offset = state.position();
+        state.putInt(offset, tag);
+        state.putInt(offset + 4, samplingRate);
+        state.putInt(offset + 8, channels);
+        state.putInt(offset + 12, stateSize);
+    }
+
+    /**
+     * Check the header at the buffer's position. The position is not changed.
+     * @throws IllegalArgumentException if the header does not match.
+     */
+    static void check(ByteBuffer state, int tag, int samplingRate, int channels, int stateSize)
+    {
+        int offset = state.position();
+        if (state.getInt(offset) != tag)
+            throw new IllegalArgumentException("state buffer does not hold a snapshot of this kind");
+        if (state.getInt(offset + 4) != samplingRate)
+            throw new IllegalArgumentException("Snapshot was taken with a different sampling rate");
+        if (state.getInt(offset + 8) != channels)
+            throw new IllegalArgumentException("Snapshot was taken with a different number of channels");
+        if (state.getInt(offset + 12) != stateSize)
+            throw new IllegalArgumentException("Snapshot has a different state size");
+    }
+}
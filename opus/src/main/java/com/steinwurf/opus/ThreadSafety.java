@@ -0,0 +1,30 @@
+package com.steinwurf.opus;
+
+/**
+ * How an {@link Encoder} or {@link Decoder} guards against use from multiple threads.
+ *
+ * The underlying libopus state is not thread-safe: an instance must only be used by one
+ * thread at a time. Using an instance after it has been closed is always detected, regardless
+ * of the mode. Whether closing it while another thread is inside a call is detected depends on
+ * the mode.
+ */
+public enum ThreadSafety
+{
+    /**
+     * No checks (default). Concurrent use, including closing the instance while another
+     * thread is inside a call, corrupts the codec state or crashes the VM.
+     * This is the cheapest mode, for instances confined to one thread at a time.
+     */
+    UNCHECKED,
+    /**
+     * Concurrent use, including closing the instance while another thread is inside a call,
+     * fails fast with a {@link java.util.ConcurrentModificationException}.
+     * Each call costs two atomic operations on an uncontended flag.
+     */
+    CHECKED,
+    /**
+     * Calls are serialized with an internal lock, so the instance can be shared between
+     * threads. Each call costs an uncontended lock acquisition, plus waiting when contended.
+     */
+    SYNCHRONIZED
+}
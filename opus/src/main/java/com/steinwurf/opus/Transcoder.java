@@ -0,0 +1,365 @@
+package com.steinwurf.opus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Re-encodes a stored stream of Opus packets in parallel.
+ *
+ * The stream is split into independent segments of a fixed number of output frames, which are
+ * transcoded concurrently and stitched back together in order.
+ * Each segment is preceded by a pre-roll: the decoder starts decoding ahead of the segment and
+ * the encoder encodes (and discards) the frames right before it, so the codec states have
+ * converged by the time the segment itself is encoded.
+ * Encoders and decoders are pooled and reset between segments. They hold native memory (see
+ * {@link NativeMemory}) until the transcoder is closed.
+ *
+ * The encoders delay the stream by their lookahead, which is reported as the pre-skip of the
+ * result. Passing the pre-skip of a result back in when transcoding it again keeps the stream
+ * aligned across generations.
+ */
+public class Transcoder implements AutoCloseable
+{
+    /**
+     * Configures newly created encoders, for instance to set the target bitrate.
+     */
+    public interface Configuration
+    {
+        /**
+         * Configure an encoder.
+         * @param encoder the encoder to configure
+         */
+        void configure(Encoder encoder);
+    }
+
+    /**
+     * The transcoded stream.
+     */
+    public static class Result
+    {
+        /**
+         * The encoded packets, in order.
+         */
+        public final List<byte[]> packets;
+
+        /**
+         * Number of samples per channel in each packet.
+         */
+        public final int frameSize;
+
+        /**
+         * Number of samples per channel to discard at the start of the decoded packets.
+         * This is the lookahead of the encoder, see {@link Encoder#getLookahead()}.
+         */
+        public final int preSkip;
+
+        /**
+         * Number of samples per channel in the input stream, excluding its pre-skip.
+         * The packets hold preSkip + sampleCount samples, followed by up to frameSize - 1
+         * samples of silence padding the last packet.
+         */
+        public final long sampleCount;
+
+        Result(List<byte[]> packets, int frameSize, int preSkip, long sampleCount)
+        {
+            this.packets = packets;
+            this.frameSize = frameSize;
+            this.preSkip = preSkip;
+            this.sampleCount = sampleCount;
+        }
+    }
+
+    private final int sampleRate;
+    private final int channels;
+    private final int frameSize;
+    private final int lookahead;
+    private final int maxDecodeSize;
+    private final BufferPool<Encoder> encoders;
+    private final BufferPool<Decoder> decoders;
+
+    private int segmentFrames;
+    private int preRollFrames;
+
+    /**
+     * Create transcoder.
+     * @param sampleRate Sampling rate (Hz) to transcode at.
+     *                   This must be one of 8000, 12000, 16000, 24000, or 48000.
+     * @param channels Number of channels (1 or 2).
+     * @param application Coding mode of the encoders.
+     * @param frameTimeUs The output frame duration specified in microseconds.
+     *                    See {@link Encoder#calculateFrameSize(int)}.
+     * @param configuration Configuration applied to each encoder, or null.
+     */
+    public Transcoder(final int sampleRate, final int channels, final Encoder.Application application,
+                      int frameTimeUs, final Configuration configuration)
+    {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.maxDecodeSize = sampleRate * 120 / 1000;
+
+        int pool = Runtime.getRuntime().availableProcessors();
+        this.encoders = new BufferPool<Encoder>(pool) {
+            @Override
+            Encoder create()
+            {
+                Encoder encoder = new Encoder(sampleRate, channels, application);
+                if (configuration != null)
+                    configuration.configure(encoder);
+                return encoder;
+            }
+
+            @Override
+            void discard(Encoder encoder)
+            {
+                encoder.close();
+            }
+        };
+        this.decoders = new BufferPool<Decoder>(pool) {
+            @Override
+            Decoder create()
+            {
+                return new Decoder(sampleRate, channels);
+            }
+
+            @Override
+            void discard(Decoder decoder)
+            {
+                decoder.close();
+            }
+        };
+
+        Encoder encoder = encoders.acquire();
+        this.frameSize = encoder.calculateFrameSize(frameTimeUs);
+        this.lookahead = encoder.getLookahead();
+        encoders.recycle(encoder);
+
+        // Default to 10 second segments and the 80 ms pre-roll recommended by RFC 7845
+        this.segmentFrames = Math.max(1, 10000000 / frameTimeUs);
+        this.preRollFrames = (80000 + frameTimeUs - 1) / frameTimeUs;
+    }
+
+    /**
+     * Set the length of the segments transcoded in parallel.
+     * @param frames Number of output frames per segment.
+     */
+    public void setSegmentLength(int frames)
+    {
+        if (frames < 1)
+            throw new IllegalArgumentException(String.format("Invalid segment length %d", frames));
+        segmentFrames = frames;
+    }
+
+    /**
+     * Get the length of the segments transcoded in parallel.
+     * @return Number of output frames per segment.
+     */
+    public int getSegmentLength()
+    {
+        return segmentFrames;
+    }
+
+    /**
+     * Set the pre-roll used for each of the decoder and the encoder ahead of a segment.
+     * The pre-roll must cover at least the encoder's lookahead, see {@link #getPreSkip()}.
+     * Otherwise each segment would start with the silence the encoder starts up with.
+     * @param frames Number of output frames of pre-roll.
+     */
+    public void setPreRoll(int frames)
+    {
+        if (frames < 0)
+            throw new IllegalArgumentException(String.format("Invalid pre-roll %d", frames));
+        if ((long)frames * frameSize < lookahead)
+        {
+            throw new IllegalArgumentException(String.format(
+                "Pre-roll of %d frames is shorter than the encoder lookahead of %d samples",
+                frames, lookahead));
+        }
+        preRollFrames = frames;
+    }
+
+    /**
+     * Get the pre-roll used for each of the decoder and the encoder ahead of a segment.
+     * @return Number of output frames of pre-roll.
+     */
+    public int getPreRoll()
+    {
+        return preRollFrames;
+    }
+
+    /**
+     * Get the number of samples per channel in each output packet.
+     * @return the output frame size
+     */
+    public int getFrameSize()
+    {
+        return frameSize;
+    }
+
+    /**
+     * Get the number of samples per channel the output is delayed by.
+     * @return the pre-skip of the transcoded streams
+     */
+    public int getPreSkip()
+    {
+        return lookahead;
+    }
+
+    /**
+     * Transcode a stream without pre-skip.
+     * @param packets The Opus packets of the stream, in order.
+     * @param executor Executor transcoding the segments, for instance a
+     *                 {@code java.util.concurrent.ForkJoinPool}.
+     * @return the transcoded stream
+     * @throws InterruptedException if interrupted while waiting for the segments
+     */
+    public Result transcode(List<byte[]> packets, ExecutorService executor)
+        throws InterruptedException
+    {
+        return transcode(packets, 0, executor);
+    }
+
+    /**
+     * Transcode a stream.
+     * @param packets The Opus packets of the stream, in order.
+     * @param preSkip Number of samples per channel to discard at the start of the decoded
+     *                stream, at the transcoder's sampling rate.
+     * @param executor Executor transcoding the segments, for instance a
+     *                 {@code java.util.concurrent.ForkJoinPool}.
+     * @return the transcoded stream
+     * @throws InterruptedException if interrupted while waiting for the segments
+     */
+    public Result transcode(final List<byte[]> packets, final int preSkip, ExecutorService executor)
+        throws InterruptedException
+    {
+        if (preSkip < 0)
+            throw new IllegalArgumentException(String.format("Invalid pre-skip %d", preSkip));
+
+        final long[] starts = new long[packets.size() + 1];
+        for (int i = 0; i < packets.size(); i++)
+        {
+            byte[] packet = packets.get(i);
+            starts[i + 1] = starts[i] +
+                Decoder.getNumberOfSamples(packet, 0, packet.length, sampleRate);
+        }
+
+        final long sampleCount = Math.max(0, starts[packets.size()] - preSkip);
+        // The encoder delays the stream by its lookahead, which the packets must hold too
+        final long frames = sampleCount == 0 ? 0 : (sampleCount + lookahead + frameSize - 1) / frameSize;
+
+        List<Callable<List<byte[]>>> tasks = new ArrayList<Callable<List<byte[]>>>();
+        for (long first = 0; first < frames; first += segmentFrames)
+        {
+            final long begin = first;
+            final long end = Math.min(frames, first + segmentFrames);
+            tasks.add(new Callable<List<byte[]>>() {
+                @Override
+                public List<byte[]> call()
+                {
+                    return transcodeSegment(packets, starts, preSkip, begin, end);
+                }
+            });
+        }
+
+        List<byte[]> output = new ArrayList<byte[]>((int)frames);
+        try
+        {
+            for (Future<List<byte[]>> future : executor.invokeAll(tasks))
+                output.addAll(future.get());
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+        return new Result(output, frameSize, lookahead, sampleCount);
+    }
+
+    /**
+     * Release the pooled encoders and decoders.
+     * This must not be called while transcoding. The transcoder may still be used afterwards,
+     * creating new encoders and decoders as needed.
+     */
+    @Override
+    public void close()
+    {
+        encoders.clear();
+        decoders.clear();
+    }
+
+    /**
+     * Transcode the output frames [first, last) of a stream.
+     */
+    private List<byte[]> transcodeSegment(List<byte[]> packets, long[] starts, int preSkip, long first, long last)
+    {
+        // The samples to encode, as positions in the decoded stream including its pre-skip
+        long encodeFrom = Math.max(0, first - preRollFrames);
+        long begin = preSkip + encodeFrom * frameSize;
+        long end = preSkip + last * frameSize;
+        long decodeFrom = Math.max(0, begin - (long)preRollFrames * frameSize);
+
+        // Find the packet containing the first sample to decode
+        int index = Arrays.binarySearch(starts, 0, packets.size(), decodeFrom);
+        if (index < 0)
+            index = -index - 2;
+        // Skip empty packets sharing the same start
+        while (index > 0 && starts[index - 1] == starts[index])
+            index--;
+
+        short[] pcm = new short[(int)(end - begin) * channels];
+        Decoder decoder = decoders.acquire();
+        try
+        {
+            decoder.resetState();
+            short[] decoded = new short[maxDecodeSize * channels];
+            for (; index < packets.size() && starts[index] < end; index++)
+            {
+                byte[] packet = packets.get(index);
+                int samples = decoder.decode(packet, 0, packet.length, decoded, 0, decoded.length, maxDecodeSize, false);
+
+                long from = Math.max(begin, starts[index]);
+                long to = Math.min(end, starts[index] + samples);
+                if (from < to)
+                {
+                    System.arraycopy(
+                        decoded, (int)(from - starts[index]) * channels,
+                        pcm, (int)(from - begin) * channels,
+                        (int)(to - from) * channels);
+                }
+            }
+        }
+        finally
+        {
+            decoders.recycle(decoder);
+        }
+
+        List<byte[]> output = new ArrayList<byte[]>((int)(last - first));
+        Encoder encoder = encoders.acquire();
+        try
+        {
+            encoder.resetState();
+            byte[] encoded = new byte[OpusPacket.MAX_SIZE];
+            for (long frame = encodeFrom; frame < last; frame++)
+            {
+                int length = encoder.encode(
+                    pcm, (int)(frame - encodeFrom) * frameSize * channels, frameSize * channels,
+                    frameSize, encoded, 0, encoded.length);
+                if (frame >= first)
+                    output.add(Arrays.copyOf(encoded, length));
+            }
+        }
+        finally
+        {
+            encoders.recycle(encoder);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,84 @@
+package com.steinwurf.opus;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Enforces the {@link ThreadSafety} mode of a codec instance.
+ * Each call into the native state is bracketed by {@link #enter()} and
+ * {@link #exit(ThreadSafety)}, passing the mode returned by the former to the latter so that
+ * changing the mode concurrently cannot unbalance them.
+ */
+final class UsageGuard
+{
+    private final String name;
+    private final AtomicBoolean inUse = new AtomicBoolean();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile ThreadSafety mode = ThreadSafety.UNCHECKED;
+
+    /**
+     * Create usage guard.
+     * @param name Name of the guarded object, used in error messages.
+     */
+    UsageGuard(String name)
+    {
+        this.name = name;
+    }
+
+    ThreadSafety getMode()
+    {
+        return mode;
+    }
+
+    void setMode(ThreadSafety mode)
+    {
+        if (mode == null)
+            throw new NullPointerException("mode");
+        this.mode = mode;
+    }
+
+    /**
+     * Mark the start of a call.
+     * @return the mode to pass to {@link #exit(ThreadSafety)}
+     */
+    ThreadSafety enter()
+    {
+        ThreadSafety current = mode;
+        switch (current)
+        {
+            case CHECKED:
+                if (!inUse.compareAndSet(false, true))
+                {
+                    throw new ConcurrentModificationException(
+                        name + " used concurrently from multiple threads");
+                }
+                break;
+            case SYNCHRONIZED:
+                lock.lock();
+                break;
+            default:
+                break;
+        }
+        return current;
+    }
+
+    /**
+     * Mark the end of a call.
+     * @param entered the mode returned by {@link #enter()}
+     */
+    void exit(ThreadSafety entered)
+    {
+        switch (entered)
+        {
+            case CHECKED:
+                inUse.set(false);
+                break;
+            case SYNCHRONIZED:
+                lock.unlock();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.steinwurf.opus;
+
+import org.junit.Assume;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Shared setup for the tests running {@link Encoder} and {@link Decoder} on the host JVM.
+ *
+ * These require the JNI libraries to be built for the host and to be on
+ * {@code java.library.path}.
+ */
+class CodecHarness
+{
+    static final int SAMPLE_RATE = 16000;
+
+    /**
+     * Skip the calling test class unless the JNI libraries are built for the host.
+     * The libraries are loaded directly rather than through {@link Encoder} and
+     * {@link Decoder}, as a failed static initializer leaves those classes unusable for every
+     * later test class in the same JVM.
+     */
+    static void assumeNativeLibraries()
+    {
+        try
+        {
+            System.loadLibrary("opus_encoder_jni");
+            System.loadLibrary("opus_decoder_jni");
+        }
+        catch (LinkageError e)
+        {
+            Assume.assumeNoException("JNI libraries are not built for the host", e);
+        }
+    }
+
+    /**
+     * Read the bundled recording.
+     * @return the recording, mono at {@link #SAMPLE_RATE}
+     * @throws IOException if the recording cannot be read
+     */
+    static short[] recording() throws IOException
+    {
+        InputStream is = CodecHarness.class.getResourceAsStream("pcm_mono_16_bit_16kHz.dat");
+        if (is == null)
+            throw new IOException("Missing resource pcm_mono_16_bit_16kHz.dat");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try
+        {
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                bytes.write(buffer, 0, read);
+        }
+        finally
+        {
+            is.close();
+        }
+        short[] pcm = new short[bytes.size() / 2];
+        ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(pcm);
+        return pcm;
+    }
+}
@@ -0,0 +1,126 @@
+package com.steinwurf.opus;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test, which will execute on the development machine (host).
+ */
+public class CodecStageTest {
+
+    private static final int CONCEALED = -1;
+
+    /**
+     * A stage passing items through, which conceals dropped items with {@link #CONCEALED}.
+     */
+    private static class PassThroughStage extends CodecStage<Integer, Integer>
+    {
+        PassThroughStage(int prefetch, OverflowPolicy policy, ExecutorService executor)
+        {
+            super(prefetch, policy, executor);
+        }
+
+        @Override
+        Integer process(Integer item)
+        {
+            return item;
+        }
+
+        @Override
+        void release(Integer item)
+        {
+        }
+
+        @Override
+        Integer conceal()
+        {
+            return CONCEALED;
+        }
+    }
+
+    @Test
+    public void concealmentKeepsItsPlace() throws InterruptedException {
+        final int count = 100000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        final PassThroughStage stage = new PassThroughStage(4, OverflowPolicy.CONCEAL, executor);
+
+        final List<Integer> output = new ArrayList<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        stage.subscribe(new Flow.Subscriber<Integer>() {
+            Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription s)
+            {
+                subscription = s;
+                s.request(1);
+            }
+
+            @Override
+            public void onNext(Integer item)
+            {
+                output.add(item);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                fail(throwable.toString());
+            }
+
+            @Override
+            public void onComplete()
+            {
+                completed.countDown();
+            }
+        });
+
+        // Push all items from another thread, ignoring demand, while the stage drains
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                stage.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n)
+                    {
+                    }
+
+                    @Override
+                    public void cancel()
+                    {
+                    }
+                });
+                for (int i = 0; i < count; i++)
+                    stage.onNext(i);
+                stage.onComplete();
+            }
+        });
+        publisher.start();
+        publisher.join();
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // Each dropped item is concealed in its own place
+        assertEquals(count, output.size());
+        int concealed = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int item = output.get(i);
+            if (item == CONCEALED)
+                concealed++;
+            else
+                assertEquals(i, item);
+        }
+        assertEquals(stage.getDroppedCount(), concealed);
+    }
+}
@@ -0,0 +1,104 @@
+package com.steinwurf.opus;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test, which will execute on the development machine (host).
+ */
+public class FrameRingTest {
+    @Test
+    public void claimPublishConsume() {
+        FrameRing ring = new FrameRing(4, 320, 2);
+        assertEquals(4, ring.getCapacity());
+        assertEquals(320, ring.getFrameSize());
+        assertNull(ring.peek());
+
+        for (short i = 0; i < 4; i++)
+        {
+            short[] slot = ring.claim();
+            assertNotNull(slot);
+            assertEquals(640, slot.length);
+            slot[0] = i;
+            ring.publish();
+        }
+        assertNull(ring.claim());
+        assertEquals(4, ring.size());
+
+        for (short i = 0; i < 4; i++)
+        {
+            short[] slot = ring.peek();
+            assertNotNull(slot);
+            assertEquals(i, slot[0]);
+            ring.consume();
+        }
+        assertNull(ring.peek());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void slotsAreReused() {
+        FrameRing ring = new FrameRing(2, 160, 1);
+        short[] first = ring.claim();
+        ring.publish();
+        ring.consume();
+        ring.claim();
+        ring.publish();
+        ring.consume();
+        assertSame(first, ring.claim());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void publishRequiresClaim() {
+        FrameRing ring = new FrameRing(4, 160, 1);
+        ring.claim();
+        ring.publish();
+        ring.publish();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void consumeRequiresPublish() {
+        FrameRing ring = new FrameRing(4, 160, 1);
+        ring.claim();
+        ring.consume();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new FrameRing(3, 160, 1);
+    }
+
+    @Test
+    public void concurrentHandoff() throws InterruptedException {
+        final FrameRing ring = new FrameRing(8, 160, 1);
+        final int frames = 100000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < frames; i++)
+                {
+                    short[] slot;
+                    while ((slot = ring.claim()) == null)
+                        Thread.yield();
+                    slot[0] = (short)i;
+                    ring.publish();
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < frames; i++)
+        {
+            short[] slot;
+            while ((slot = ring.peek()) == null)
+                Thread.yield();
+            assertEquals((short)i, slot[0]);
+            ring.consume();
+        }
+        producer.join();
+        assertNull(ring.peek());
+    }
+}
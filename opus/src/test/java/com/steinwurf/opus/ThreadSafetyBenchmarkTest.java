@@ -0,0 +1,129 @@
+package com.steinwurf.opus;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the per frame cost of each {@link ThreadSafety} mode, which will execute on the
+ * development machine (host).
+ *
+ * The time per frame of each mode, and its overhead relative to {@link ThreadSafety#UNCHECKED},
+ * is written as CSV. Each mode is measured over several interleaved rounds, keeping the
+ * fastest, to reduce the influence of other load on the machine. Wall clock timings are too
+ * noisy to fail a build on by default, so comparing the modes is opt-in.
+ *
+ * The test is skipped unless the JNI libraries are built for the host, see
+ * {@link CodecHarness}. The following system properties are supported:
+ * <ul>
+ * <li>opus.harness.threadSafetyResults: file to write the results to
+ *     (default build/codec-harness/thread-safety.csv).</li>
+ * <li>opus.harness.compareThreadSafety: if true, fail if a guarded mode is slower than
+ *     {@link ThreadSafety#UNCHECKED} by more than the tolerance (default false).</li>
+ * <li>opus.harness.threadSafetyTolerance: allowed relative increase in time per frame
+ *     (default 0.1).</li>
+ * </ul>
+ */
+public class ThreadSafetyBenchmarkTest {
+
+    private static final int FRAMES = 5000;
+    private static final int ROUNDS = 5;
+
+    @BeforeClass
+    public static void loadNativeLibraries() {
+        CodecHarness.assumeNativeLibraries();
+    }
+
+    private static double nanosPerFrame(ThreadSafety mode, short[] pcm, int frameSize)
+    {
+        Encoder encoder = new Encoder(CodecHarness.SAMPLE_RATE, 1, Encoder.Application.VOIP);
+        Decoder decoder = new Decoder(CodecHarness.SAMPLE_RATE, 1);
+        encoder.setThreadSafety(mode);
+        decoder.setThreadSafety(mode);
+        try
+        {
+            byte[] packet = new byte[4000];
+            short[] decoded = new short[frameSize];
+            int frames = pcm.length / frameSize;
+
+            long start = 0;
+            // The first pass warms up the JIT
+            for (int pass = 0; pass < 2; pass++)
+            {
+                start = System.nanoTime();
+                for (int i = 0; i < FRAMES; i++)
+                {
+                    int offset = (i % frames) * frameSize;
+                    int size = encoder.encode(pcm, offset, frameSize, frameSize, packet, 0, packet.length);
+                    assertEquals(frameSize, decoder.decode(packet, 0, size, decoded, 0, decoded.length, frameSize, false));
+                }
+            }
+            return (double)(System.nanoTime() - start) / FRAMES;
+        }
+        finally
+        {
+            encoder.close();
+            decoder.close();
+        }
+    }
+
+    @Test
+    public void modes() throws Exception {
+        short[] pcm = CodecHarness.recording();
+        int frameSize = CodecHarness.SAMPLE_RATE / 50;
+
+        ThreadSafety[] modes = ThreadSafety.values();
+        double[] nanos = new double[modes.length];
+        Arrays.fill(nanos, Double.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            for (int i = 0; i < modes.length; i++)
+                nanos[i] = Math.min(nanos[i], nanosPerFrame(modes[i], pcm, frameSize));
+        }
+
+        String path = System.getProperty(
+            "opus.harness.threadSafetyResults", "build/codec-harness/thread-safety.csv");
+        File file = new File(path);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Failed to create " + parent);
+
+        double unchecked = nanos[ThreadSafety.UNCHECKED.ordinal()];
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write("# mode,nanos_per_frame,overhead_nanos_per_frame\n");
+            for (int i = 0; i < modes.length; i++)
+            {
+                writer.write(String.format(Locale.ROOT, "%s,%.0f,%.0f\n",
+                    modes[i], nanos[i], nanos[i] - unchecked));
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        if (!Boolean.getBoolean("opus.harness.compareThreadSafety"))
+            return;
+
+        double tolerance = Double.parseDouble(
+            System.getProperty("opus.harness.threadSafetyTolerance", "0.1"));
+        for (int i = 0; i < modes.length; i++)
+        {
+            assertTrue(String.format(Locale.ROOT,
+                    "%s takes %.0f ns per frame, %.0f ns unchecked, results in %s",
+                    modes[i], nanos[i], unchecked, path),
+                nanos[i] <= unchecked * (1 + tolerance));
+        }
+    }
+}
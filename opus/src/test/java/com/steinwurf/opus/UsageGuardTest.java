@@ -0,0 +1,130 @@
+package com.steinwurf.opus;
+
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test, which will execute on the development machine (host).
+ */
+public class UsageGuardTest {
+
+    /**
+     * A thread holding the guard, as if inside a call, until it is told to leave.
+     */
+    private static class Caller extends Thread
+    {
+        final UsageGuard guard;
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch leave = new CountDownLatch(1);
+
+        Caller(UsageGuard guard)
+        {
+            this.guard = guard;
+        }
+
+        @Override
+        public void run()
+        {
+            ThreadSafety mode = guard.enter();
+            try
+            {
+                entered.countDown();
+                leave.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                guard.exit(mode);
+            }
+        }
+
+        void enterAndHold() throws InterruptedException
+        {
+            start();
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+        }
+
+        void leaveAndJoin() throws InterruptedException
+        {
+            leave.countDown();
+            join();
+        }
+    }
+
+    @Test
+    public void uncheckedAllowsOverlap() throws InterruptedException {
+        UsageGuard guard = new UsageGuard("Codec");
+        Caller caller = new Caller(guard);
+        caller.enterAndHold();
+
+        guard.exit(guard.enter());
+        caller.leaveAndJoin();
+    }
+
+    @Test
+    public void checkedFailsOnOverlap() throws InterruptedException {
+        UsageGuard guard = new UsageGuard("Codec");
+        guard.setMode(ThreadSafety.CHECKED);
+        Caller caller = new Caller(guard);
+        caller.enterAndHold();
+
+        try
+        {
+            guard.enter();
+            fail("Expected ConcurrentModificationException");
+        }
+        catch (ConcurrentModificationException e)
+        {
+            assertEquals("Codec used concurrently from multiple threads", e.getMessage());
+        }
+        caller.leaveAndJoin();
+
+        // The failed call did not leave the guard marked as in use
+        guard.exit(guard.enter());
+    }
+
+    @Test
+    public void synchronizedWaits() throws InterruptedException {
+        final UsageGuard guard = new UsageGuard("Codec");
+        guard.setMode(ThreadSafety.SYNCHRONIZED);
+        Caller caller = new Caller(guard);
+        caller.enterAndHold();
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                guard.exit(guard.enter());
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        caller.leaveAndJoin();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    public void modeChangeDuringCall() {
+        UsageGuard guard = new UsageGuard("Codec");
+        guard.setMode(ThreadSafety.CHECKED);
+        ThreadSafety mode = guard.enter();
+        guard.setMode(ThreadSafety.SYNCHRONIZED);
+        guard.exit(mode);
+
+        // Exiting with the mode that was entered cleared the in-use flag
+        guard.setMode(ThreadSafety.CHECKED);
+        guard.exit(guard.enter());
+    }
+}